@@ -8,6 +8,8 @@ import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.Task;
 
+import java.util.Set;
+
 @ExtensionMethod(Extensions.class)
 public class ChangedProjectsPlugin implements Plugin<Project> {
 
@@ -17,10 +19,14 @@ public class ChangedProjectsPlugin implements Plugin<Project> {
             throw new IllegalArgumentException(String.format("Must be applied to root project %s, but was found on %s instead.", project.getRootProject(), project.getName()));
         }
         ChangedProjectsConfiguration extension = project.getExtensions().create("changedProjectsTask", ChangedProjectsConfiguration.class);
+        extension.getNonPropagatingSourceSets().convention(Set.of("test", "testFixtures"));
         Task task = project.getTasks().register("runTaskForChangedProjects").get();
         if (project.hasBothRunCommands()) {
             throw new IllegalArgumentException("You may either use run or runCommandLine, not both");
         }
+        if (project.shouldWatch() && !project.shouldUseCommandLine()) {
+            throw new IllegalArgumentException("You may only use watch together with runCommandLine");
+        }
         if (project.hasBeenEnabled()) {
             ChangedProjectsTask.configureAndRun(project, task, extension);
         }
@@ -1,8 +1,11 @@
 package io.github.crimix.changedprojectstask.configuration;
 
+import org.gradle.api.provider.MapProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.SetProperty;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.regex.Pattern;
 
 /**
@@ -19,7 +22,8 @@ public interface ChangedProjectsConfiguration {
 
     /**
      * The task to run on the changed projects and those affected by the change (If chosen).
-     * @return the task name
+     * Multiple tasks can be run by separating their names with commas or whitespace.
+     * @return the task name or names
      */
     Property<String> getTaskToRun();
 
@@ -58,4 +62,144 @@ public interface ChangedProjectsConfiguration {
      */
     Property<String> getChangedProjectsMode();
 
+    /**
+     * The names of the source sets which changes cannot be observed by dependent projects.
+     * A project where all changes are confined to these source sets is still run, but its dependents are not.
+     * Defaults to test and testFixtures.
+     * @return a list of source set names
+     */
+    SetProperty<String> getNonPropagatingSourceSets();
+
+    /**
+     * The names of the configurations which project dependencies propagate changes transitively,
+     * meaning the dependent project and the projects depending on it are affected.
+     * If empty, all configurations not in {@link #getDirectConfigurations()} propagates transitively,
+     * otherwise project dependencies in configurations that are in neither are not considered at all.
+     * @return a list of configuration names
+     */
+    SetProperty<String> getTransitiveConfigurations();
+
+    /**
+     * The names of the configurations which project dependencies only affect the dependent project itself
+     * and not the projects depending on the dependent project.
+     * @return a list of configuration names
+     */
+    SetProperty<String> getDirectConfigurations();
+
+    /**
+     * If the plugin should stop propagating a change to the dependents of a directly changed project,
+     * when the public API of its compiled main classes is the same as in the last successful run.
+     * Only used in {@link ChangedProjectsChoice#INCLUDE_DEPENDENTS} mode.
+     * @return whether the plugin should use the public API to cut off dependents
+     */
+    Property<Boolean> getAbiCutoff();
+
+    /**
+     * The ownership rules for changed files that are not inside any project directory other than the root project's.
+     * The key is a regex matched against the changed file's path and the value is the project paths that owns the matching files.
+     * A matching file marks the owning projects as changed instead of the root project.
+     * @return a map of compiled patterns to project paths
+     */
+    MapProperty<Pattern, List<String>> getOwnershipRegex();
+
+    /**
+     * The task routing rules which decides the tasks to run on a directly changed project based on its changed files.
+     * The key is a regex matched against the changed file's path and the value is the names of the tasks to run.
+     * A project runs the union of the tasks of its changed files, where files not matching any rule runs the task to run.
+     * Projects run because of dependencies, always run or affects all, always runs the task to run.
+     * @return a map of compiled patterns to task names
+     */
+    MapProperty<Pattern, List<String>> getTaskRoutingRegex();
+
+    /**
+     * The time each git process may run before it is killed, which fails the build.
+     * If not set git may run for as long as it wants.
+     * @return the time each git process may run
+     */
+    Property<Duration> getGitTimeout();
+
+    /**
+     * The time each Gradle process started for an affected project may run before it and its descendants are killed.
+     * Only used when running using the commandline. If not set the processes may run for as long as they want.
+     * @return the time each Gradle process may run
+     */
+    Property<Duration> getProcessTimeout();
+
+    /**
+     * The time all the Gradle processes started for the affected projects may run together.
+     * The running process is killed when it is used, and the projects that have not been run are reported as not run.
+     * Only used when running using the commandline. If not set there is no limit.
+     * @return the time all Gradle processes may run
+     */
+    Property<Duration> getTotalTimeout();
+
+    /**
+     * What to do with the remaining projects when a Gradle process is killed because of {@link #getProcessTimeout()}.
+     * Either {@link TimeoutPolicy#CONTINUE} which runs the remaining projects before failing
+     * or {@link TimeoutPolicy#ABORT} which fails right away.
+     * Defaults to {@link TimeoutPolicy#CONTINUE}
+     * @return the timeout policy
+     */
+    Property<String> getTimeoutPolicy();
+
+    /**
+     * How the output of the Gradle processes started for the affected projects is printed, when running using the commandline.
+     * Either {@link OutputMode#STREAM} which prints each line prefixed with the project path as soon as it is written,
+     * {@link OutputMode#GROUPED} which prints the output of a project as one block when its process is done
+     * or {@link OutputMode#ON_FAILURE} which only prints the output of a project when its process failed.
+     * The full output of each project is always written to its own log file.
+     * Defaults to {@link OutputMode#STREAM}
+     * @return the output mode
+     */
+    Property<String> getOutputMode();
+
+    /**
+     * The number of lines of each project kept for printing when the output mode is not {@link OutputMode#STREAM}.
+     * The earlier lines are only found in the project's log file.
+     * Defaults to 1000.
+     * @return the number of lines kept
+     */
+    Property<Integer> getOutputBufferLines();
+
+    /**
+     * The maximum number of Gradle processes run at the same time when running using the commandline.
+     * It is further limited by org.gradle.workers.max and by {@link #getProcessMemoryBudget()} using {@link #getProcessMemoryHints()}.
+     * Defaults to 1, which runs the projects one at a time.
+     * The processes share the workspace and separate Gradle builds do not coordinate writing the same outputs,
+     * so when more than one is run the jars of the projects needed by more than one of them are built by a single process first.
+     * @return the maximum number of processes
+     */
+    Property<Integer> getMaxParallelProcesses();
+
+    /**
+     * The memory in megabytes the Gradle process of a project is expected to use, including the JVMs it starts like test workers.
+     * The key is the project path and projects not in the map uses {@link #getDefaultProcessMemoryHint()}.
+     * A process is only started in parallel with others when its memory fits within the part of {@link #getProcessMemoryBudget()} not used by the running processes.
+     * @return a map of project paths to megabytes
+     */
+    MapProperty<String, Integer> getProcessMemoryHints();
+
+    /**
+     * The memory in megabytes the Gradle process of a project not in {@link #getProcessMemoryHints()} is expected to use.
+     * Defaults to 1024.
+     * @return the megabytes
+     */
+    Property<Integer> getDefaultProcessMemoryHint();
+
+    /**
+     * The memory in megabytes the Gradle processes running at the same time may use together.
+     * Defaults to the memory the machine has available when the processes are started, which includes the page cache that can be reclaimed.
+     * Setting this is useful on machines shared with other builds or where the available memory is not known, like some containers.
+     * @return the megabytes
+     */
+    Property<Integer> getProcessMemoryBudget();
+
+    /**
+     * If the directly changed projects should be run to completion before any of their dependents are started when running using the commandline,
+     * such that a failure in a directly changed project stops the build before any dependents are run.
+     * The projects are always run in order of their distance from the change, this only decides whether the dependents wait for the directly changed projects.
+     * @return whether the plugin should fail fast after the directly changed projects
+     */
+    Property<Boolean> getFailFastAfterFirstTier();
+
 }
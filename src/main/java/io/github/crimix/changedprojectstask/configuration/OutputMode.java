@@ -0,0 +1,21 @@
+package io.github.crimix.changedprojectstask.configuration;
+
+/**
+ * How the output of the Gradle processes started for the affected projects is printed
+ */
+public enum OutputMode {
+    /**
+     * Print each line prefixed with the project path as soon as it is written
+     */
+    STREAM,
+
+    /**
+     * Print the output of a project as one block when its process is done
+     */
+    GROUPED,
+
+    /**
+     * Only print the output of a project when its process failed
+     */
+    ON_FAILURE
+}
@@ -0,0 +1,16 @@
+package io.github.crimix.changedprojectstask.configuration;
+
+/**
+ * What to do with the remaining projects when a process runs out of time
+ */
+public enum TimeoutPolicy {
+    /**
+     * Keep running the remaining projects and fail when all of them have run
+     */
+    CONTINUE,
+
+    /**
+     * Run none of the remaining projects and fail right away
+     */
+    ABORT
+}
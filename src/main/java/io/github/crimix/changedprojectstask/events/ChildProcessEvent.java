@@ -0,0 +1,29 @@
+package io.github.crimix.changedprojectstask.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Recorded for each Gradle process started to run the tasks of an affected project.
+ */
+@Name("io.github.crimix.changedprojectstask.ChildProcess")
+@Label("Child Gradle Process")
+@Category({"Gradle", "Changed Projects Task"})
+@Description("Running the tasks of an affected project using the commandline")
+public class ChildProcessEvent extends Event {
+
+    @Label("Project")
+    public String project;
+
+    @Label("Task Paths")
+    public String taskPaths;
+
+    @Label("Exit Code")
+    public int exitCode;
+
+    @Label("Timed Out")
+    public boolean timedOut;
+}
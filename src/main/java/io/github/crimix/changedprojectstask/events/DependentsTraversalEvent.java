@@ -0,0 +1,23 @@
+package io.github.crimix.changedprojectstask.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Recorded when the projects depending on the changed projects have been found.
+ */
+@Name("io.github.crimix.changedprojectstask.DependentsTraversal")
+@Label("Dependents Traversal")
+@Category({"Gradle", "Changed Projects Task"})
+@Description("Finding the projects affected through their dependencies")
+public class DependentsTraversalEvent extends Event {
+
+    @Label("Changed Projects")
+    public int changedProjects;
+
+    @Label("Dependent Projects")
+    public int dependentProjects;
+}
@@ -0,0 +1,32 @@
+package io.github.crimix.changedprojectstask.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Recorded when the changed files are found using git, including resolving the revisions.
+ */
+@Name("io.github.crimix.changedprojectstask.GitDiff")
+@Label("Git Diff")
+@Category({"Gradle", "Changed Projects Task"})
+@Description("Finding the changed files between two revisions")
+public class GitDiffEvent extends Event {
+
+    @Label("Range")
+    @Description("The revisions as configured")
+    public String range;
+
+    @Label("Resolved Range")
+    @Description("The commits that were compared")
+    public String resolvedRange;
+
+    @Label("Git Process")
+    @Description("Whether git diff was run as a process instead of in process")
+    public boolean gitProcess;
+
+    @Label("Changed Files")
+    public int changedFiles;
+}
@@ -0,0 +1,34 @@
+package io.github.crimix.changedprojectstask.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Recorded when the changed files have been filtered by the ignored and affects all regexes.
+ * The filtering happens while the diff is read, so the duration of the event is that of the diff
+ * and the time spent matching the regexes is recorded on its own.
+ */
+@Name("io.github.crimix.changedprojectstask.PathFilter")
+@Label("Changed Path Filtering")
+@Category({"Gradle", "Changed Projects Task"})
+@Description("Matching the changed files against the ignored and affects all regexes")
+public class PathFilterEvent extends Event {
+
+    @Label("Paths")
+    public int paths;
+
+    @Label("Ignored Paths")
+    public int ignoredPaths;
+
+    @Label("Affects All Projects")
+    public boolean affectsAll;
+
+    @Label("Filter Time")
+    @Description("The time spent matching the regexes")
+    @Timespan(Timespan.NANOSECONDS)
+    public long filterTime;
+}
@@ -0,0 +1,27 @@
+package io.github.crimix.changedprojectstask.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Recorded when the changed files have been mapped to the projects they belong to.
+ */
+@Name("io.github.crimix.changedprojectstask.ProjectMapping")
+@Label("File To Project Mapping")
+@Category({"Gradle", "Changed Projects Task"})
+@Description("Mapping the changed files to the directly affected projects")
+public class ProjectMappingEvent extends Event {
+
+    @Label("Paths")
+    public int paths;
+
+    @Label("Affected Projects")
+    public int affectedProjects;
+
+    @Label("Parallel")
+    @Description("Whether the paths were mapped in parallel chunks")
+    public boolean parallel;
+}
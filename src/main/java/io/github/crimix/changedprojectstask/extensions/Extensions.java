@@ -2,6 +2,8 @@ package io.github.crimix.changedprojectstask.extensions;
 
 import io.github.crimix.changedprojectstask.configuration.ChangedProjectsChoice;
 import io.github.crimix.changedprojectstask.configuration.ChangedProjectsConfiguration;
+import io.github.crimix.changedprojectstask.configuration.OutputMode;
+import io.github.crimix.changedprojectstask.configuration.TimeoutPolicy;
 import io.github.crimix.changedprojectstask.utils.GitDiffMode;
 import lombok.SneakyThrows;
 import org.gradle.api.Project;
@@ -10,9 +12,14 @@ import org.gradle.api.logging.Logger;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import static io.github.crimix.changedprojectstask.utils.Properties.*;
 
@@ -21,6 +28,10 @@ import static io.github.crimix.changedprojectstask.utils.Properties.*;
  */
 public class Extensions {
 
+    private static final Pattern TASK_SEPARATOR = Pattern.compile("[,\\s]+");
+    private static final int DEFAULT_OUTPUT_BUFFER_LINES = 1000;
+    private static final int DEFAULT_PROCESS_MEMORY_HINT = 1024;
+
     /**
      * Returns whether the project is the root project.
      * @return true if the project is the root project
@@ -66,6 +77,20 @@ public class Extensions {
                 .orElseGet(() -> configuration.getTaskToRun().getOrNull());
     }
 
+    /**
+     * Gets the tasks to run, the task to run may contain multiple task names separated by commas or whitespace.
+     * @return the names of the tasks to run
+     */
+    public static List<String> getTasksToRun(Project project, ChangedProjectsConfiguration configuration) {
+        String taskToRun = getTaskToRun(project, configuration);
+        if (taskToRun == null) {
+            return Collections.emptyList();
+        }
+        return TASK_SEPARATOR.splitAsStream(taskToRun.trim())
+                .filter(taskName -> !taskName.isEmpty())
+                .collect(Collectors.toList());
+    }
+
     /**
      * Gets the configured commit id
      * @return either an optional with the commit id or an empty optional if it has not been configured
@@ -86,6 +111,30 @@ public class Extensions {
         return project.getRootProject().hasProperty(ENABLE_COMMANDLINE);
     }
 
+    /**
+     * Returns if the plugin should keep watching the project tree for changes after the initial run.
+     * @return true if the plugin should watch for changes
+     */
+    public static boolean shouldWatch(Project project) {
+        return project.getRootProject().hasProperty(WATCH);
+    }
+
+    /**
+     * Returns if the changed files should be found by running git diff instead of reading the repository in process.
+     * @return true if git diff should be run as a process
+     */
+    public static boolean shouldUseGitProcess(Project project) {
+        return project.getRootProject().hasProperty(GIT_PROCESS);
+    }
+
+    /**
+     * Returns if the changed files should be found by comparing the files with the snapshot of the last successful run instead of using git.
+     * @return true if the snapshot should be used
+     */
+    public static boolean shouldUseSnapshot(Project project) {
+        return project.getRootProject().hasProperty(SNAPSHOT);
+    }
+
     /**
      * Gets the commandline arguments specified for use when invoking the task to run using the commandline.
      * @return the commandline arguments as a string
@@ -141,6 +190,27 @@ public class Extensions {
         return null;
     }
 
+    /**
+     * Gets the directory the changed paths are relative to, which is the git root or the root project's directory if there is no git root.
+     * @return a file that represents the directory the changed paths are relative to
+     */
+    public static File getWorkspaceRootDir(Project project) {
+        File gitRoot = getGitRootDir(project);
+        return gitRoot != null ? gitRoot : project.getRootProject().getProjectDir();
+    }
+
+    /**
+     * Gets the directory where the plugin stores data between runs, this is inside Gradle's project cache directory.
+     * @return the directory where the plugin stores data between runs
+     */
+    public static File getPluginDataDir(Project project) {
+        File projectCacheDir = project.getGradle().getStartParameter().getProjectCacheDir();
+        if (projectCacheDir == null) {
+            projectCacheDir = new File(project.getRootProject().getProjectDir(), ".gradle");
+        }
+        return new File(projectCacheDir, "changed-projects-task");
+    }
+
     /**
      * Gets the canonical path to the project.
      * @return the canonical path to the project.
@@ -172,10 +242,10 @@ public class Extensions {
      * Runs validation on the configuration.
      */
     public static void validate(ChangedProjectsConfiguration configuration, Project root) {
-        String taskToRun = getTaskToRun(root, configuration);
-        if (taskToRun == null || taskToRun.isEmpty()) {
+        List<String> tasksToRun = getTasksToRun(root, configuration);
+        if (tasksToRun.isEmpty()) {
             throw new IllegalArgumentException("changedProjectsTask: taskToRun is required");
-        } else if (taskToRun.startsWith(":")) {
+        } else if (tasksToRun.stream().anyMatch(taskName -> taskName.startsWith(":"))) {
             throw new IllegalArgumentException("changedProjectsTask: taskToRun should not start with :");
         }
         Set<String> projectsAlwaysRun = configuration.getAlwaysRunProject().getOrElse(Collections.emptySet());
@@ -187,12 +257,119 @@ public class Extensions {
 
         configuration.getAffectsAllRegex().getOrElse(Collections.emptySet()); //Gradle will throw if the type does not match
         configuration.getIgnoredRegex().getOrElse(Collections.emptySet()); //Gradle will throw if the type does not match
+        Map<Pattern, List<String>> ownershipRegex = configuration.getOwnershipRegex().getOrElse(Collections.emptyMap()); //Gradle will throw if the type does not match
+        for (List<String> owners : ownershipRegex.values()) {
+            for (String project : owners) {
+                if (!project.startsWith(":")) {
+                    throw new IllegalArgumentException(String.format("changedProjectsTask: ownershipRegex project %s must start with :", project));
+                }
+            }
+        }
+        Map<Pattern, List<String>> taskRoutingRegex = configuration.getTaskRoutingRegex().getOrElse(Collections.emptyMap()); //Gradle will throw if the type does not match
+        for (List<String> tasks : taskRoutingRegex.values()) {
+            for (String task : tasks) {
+                if (task.startsWith(":")) {
+                    throw new IllegalArgumentException(String.format("changedProjectsTask: taskRoutingRegex task %s should not start with :", task));
+                }
+            }
+        }
         String mode = configuration.getChangedProjectsMode().getOrElse(ChangedProjectsChoice.INCLUDE_DEPENDENTS.name());
         try {
             ChangedProjectsChoice.valueOf(mode);
         } catch (IllegalArgumentException ignored) {
             throw new IllegalArgumentException(String.format("changedProjectsTask: ChangedProjectsMode must be either %s or %s ", ChangedProjectsChoice.ONLY_DIRECTLY.name(), ChangedProjectsChoice.INCLUDE_DEPENDENTS.name()));
         }
+        validateTimeout("gitTimeout", configuration.getGitTimeout().getOrNull());
+        validateTimeout("processTimeout", configuration.getProcessTimeout().getOrNull());
+        validateTimeout("totalTimeout", configuration.getTotalTimeout().getOrNull());
+        String timeoutPolicy = configuration.getTimeoutPolicy().getOrElse(TimeoutPolicy.CONTINUE.name());
+        try {
+            TimeoutPolicy.valueOf(timeoutPolicy);
+        } catch (IllegalArgumentException ignored) {
+            throw new IllegalArgumentException(String.format("changedProjectsTask: timeoutPolicy must be either %s or %s ", TimeoutPolicy.CONTINUE.name(), TimeoutPolicy.ABORT.name()));
+        }
+        String outputMode = configuration.getOutputMode().getOrElse(OutputMode.STREAM.name());
+        try {
+            OutputMode.valueOf(outputMode);
+        } catch (IllegalArgumentException ignored) {
+            throw new IllegalArgumentException(String.format("changedProjectsTask: outputMode must be either %s, %s or %s ", OutputMode.STREAM.name(), OutputMode.GROUPED.name(), OutputMode.ON_FAILURE.name()));
+        }
+        if (getProcessOutputBufferLines(configuration) < 1) {
+            throw new IllegalArgumentException("changedProjectsTask: outputBufferLines must be positive");
+        }
+        if (configuration.getMaxParallelProcesses().getOrElse(1) < 1) {
+            throw new IllegalArgumentException("changedProjectsTask: maxParallelProcesses must be positive");
+        }
+        if (configuration.getDefaultProcessMemoryHint().getOrElse(DEFAULT_PROCESS_MEMORY_HINT) < 1) {
+            throw new IllegalArgumentException("changedProjectsTask: defaultProcessMemoryHint must be positive");
+        }
+        if (configuration.getProcessMemoryBudget().getOrElse(1) < 1) {
+            throw new IllegalArgumentException("changedProjectsTask: processMemoryBudget must be positive");
+        }
+        Map<String, Integer> processMemoryHints = configuration.getProcessMemoryHints().getOrElse(Collections.emptyMap()); //Gradle will throw if the type does not match
+        for (Map.Entry<String, Integer> hint : processMemoryHints.entrySet()) {
+            if (!hint.getKey().startsWith(":")) {
+                throw new IllegalArgumentException(String.format("changedProjectsTask: processMemoryHints project %s must start with :", hint.getKey()));
+            } else if (hint.getValue() < 1) {
+                throw new IllegalArgumentException(String.format("changedProjectsTask: processMemoryHints of %s must be positive", hint.getKey()));
+            }
+        }
+    }
+
+    private static void validateTimeout(String name, Duration timeout) {
+        if (timeout != null && (timeout.isZero() || timeout.isNegative())) {
+            throw new IllegalArgumentException(String.format("changedProjectsTask: %s must be positive", name));
+        }
+    }
+
+    /**
+     * Gets how the output of the Gradle processes started for the affected projects is printed
+     * @return the configured output mode
+     */
+    public static OutputMode getProcessOutputMode(ChangedProjectsConfiguration configuration) {
+        return OutputMode.valueOf(configuration.getOutputMode().getOrElse(OutputMode.STREAM.name()));
+    }
+
+    /**
+     * Gets the number of lines of each project kept for printing
+     * @return the configured number of lines
+     */
+    public static int getProcessOutputBufferLines(ChangedProjectsConfiguration configuration) {
+        return configuration.getOutputBufferLines().getOrElse(DEFAULT_OUTPUT_BUFFER_LINES);
+    }
+
+    /**
+     * Gets the maximum number of Gradle processes to run at the same time, which is never more than org.gradle.workers.max
+     * @return the maximum number of processes
+     */
+    public static int getParallelProcessLimit(ChangedProjectsConfiguration configuration, Project project) {
+        int workersMax = project.getGradle().getStartParameter().getMaxWorkerCount();
+        return Math.max(1, Math.min(configuration.getMaxParallelProcesses().getOrElse(1), workersMax));
+    }
+
+    /**
+     * Gets the memory in megabytes the Gradle process of the project is expected to use
+     * @return the megabytes
+     */
+    public static long getProcessMemoryHint(ChangedProjectsConfiguration configuration, Project project) {
+        Integer hint = configuration.getProcessMemoryHints().getOrElse(Collections.emptyMap()).get(project.getPath());
+        return hint != null ? hint : configuration.getDefaultProcessMemoryHint().getOrElse(DEFAULT_PROCESS_MEMORY_HINT);
+    }
+
+    /**
+     * Returns whether the dependents should wait for the directly changed projects to succeed before they are run
+     * @return true if the plugin should fail fast after the directly changed projects
+     */
+    public static boolean shouldFailFastAfterFirstTier(ChangedProjectsConfiguration configuration) {
+        return configuration.getFailFastAfterFirstTier().getOrElse(false);
+    }
+
+    /**
+     * Returns whether the remaining projects should not be run when a process has run out of time
+     * @return true if the plugin should abort on timeout
+     */
+    public static boolean shouldAbortOnTimeout(ChangedProjectsConfiguration configuration) {
+        return TimeoutPolicy.valueOf(configuration.getTimeoutPolicy().getOrElse(TimeoutPolicy.CONTINUE.name())) == TimeoutPolicy.ABORT;
     }
 
     /**
@@ -210,16 +387,41 @@ public class Extensions {
     public static void print(ChangedProjectsConfiguration configuration, Project project, Logger logger) {
         if (shouldLog(configuration)) {
             logger.lifecycle("Printing configuration");
-            logger.lifecycle("Task to run {}", getTaskToRun(project, configuration));
+            logger.lifecycle("Task to run {}", getTasksToRun(project, configuration));
             logger.lifecycle("Always run project {}", configuration.getAlwaysRunProject().getOrElse(Collections.emptySet()));
             logger.lifecycle("Never run project {}", configuration.getNeverRunProject().getOrElse(Collections.emptySet()));
             logger.lifecycle("Affects all regex {}", configuration.getAffectsAllRegex().getOrElse(Collections.emptySet()));
             logger.lifecycle("Ignored regex {}", configuration.getIgnoredRegex().getOrElse(Collections.emptySet()));
+            logger.lifecycle("Ownership regex {}", configuration.getOwnershipRegex().getOrElse(Collections.emptyMap()));
+            logger.lifecycle("Task routing regex {}", configuration.getTaskRoutingRegex().getOrElse(Collections.emptyMap()));
             logger.lifecycle("Mode {}", getPluginMode(configuration));
+            logger.lifecycle("Non propagating source sets {}", configuration.getNonPropagatingSourceSets().getOrElse(Collections.emptySet()));
+            logger.lifecycle("Transitive configurations {}", configuration.getTransitiveConfigurations().getOrElse(Collections.emptySet()));
+            logger.lifecycle("Direct configurations {}", configuration.getDirectConfigurations().getOrElse(Collections.emptySet()));
+            logger.lifecycle("Public API cutoff {}", shouldUseAbiCutoff(configuration));
+            logger.lifecycle("Git timeout {}", configuration.getGitTimeout().getOrNull());
+            logger.lifecycle("Process timeout {}", configuration.getProcessTimeout().getOrNull());
+            logger.lifecycle("Total timeout {}", configuration.getTotalTimeout().getOrNull());
+            logger.lifecycle("Timeout policy {}", configuration.getTimeoutPolicy().getOrElse(TimeoutPolicy.CONTINUE.name()));
+            logger.lifecycle("Output mode {}", getProcessOutputMode(configuration));
+            logger.lifecycle("Output buffer lines {}", getProcessOutputBufferLines(configuration));
+            logger.lifecycle("Max parallel processes {}", getParallelProcessLimit(configuration, project));
+            logger.lifecycle("Process memory hints {}", configuration.getProcessMemoryHints().getOrElse(Collections.emptyMap()));
+            logger.lifecycle("Default process memory hint {}", configuration.getDefaultProcessMemoryHint().getOrElse(DEFAULT_PROCESS_MEMORY_HINT));
+            logger.lifecycle("Process memory budget {}", configuration.getProcessMemoryBudget().getOrNull());
+            logger.lifecycle("Fail fast after first tier {}", shouldFailFastAfterFirstTier(configuration));
             logger.lifecycle("");
         }
     }
 
+    /**
+     * Returns whether the plugin should stop propagating changes to dependents when the public API of the changed project is unchanged
+     * @return true if the plugin should use the public API cutoff
+     */
+    public static boolean shouldUseAbiCutoff(ChangedProjectsConfiguration configuration) {
+        return configuration.getAbiCutoff().getOrElse(false) && getPluginMode(configuration) == ChangedProjectsChoice.INCLUDE_DEPENDENTS;
+    }
+
     /**
      * Returns whether the plugin should log debug information to the Gradle log
      * @return true if the plugin should debug log
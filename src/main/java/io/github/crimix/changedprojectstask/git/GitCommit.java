@@ -0,0 +1,33 @@
+package io.github.crimix.changedprojectstask.git;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * The parts of a git commit needed to diff and find merge bases.
+ * The getters are auto-generated by Lombok
+ */
+@Data
+public class GitCommit {
+
+    /**
+     * The hexadecimal id of the commit
+     */
+    private final String id;
+
+    /**
+     * The hexadecimal id of the root tree of the commit
+     */
+    private final String tree;
+
+    /**
+     * The hexadecimal ids of the parents of the commit
+     */
+    private final List<String> parents;
+
+    /**
+     * The committer time in seconds since the epoch
+     */
+    private final long commitTime;
+}
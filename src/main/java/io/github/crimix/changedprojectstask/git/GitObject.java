@@ -0,0 +1,48 @@
+package io.github.crimix.changedprojectstask.git;
+
+import lombok.Data;
+
+import java.io.IOException;
+
+/**
+ * An inflated git object.
+ * The getters are auto-generated by Lombok
+ */
+@Data
+public class GitObject {
+    public static final int COMMIT = 1;
+    public static final int TREE = 2;
+    public static final int BLOB = 3;
+    public static final int TAG = 4;
+
+    /**
+     * The type of the object, which is one of {@link #COMMIT}, {@link #TREE}, {@link #BLOB} or {@link #TAG}
+     */
+    private final int type;
+
+    /**
+     * The content of the object without the header
+     */
+    private final byte[] data;
+
+    /**
+     * Gets the type from the name used in the header of loose objects.
+     * @param name the name of the type
+     * @return the type
+     * @throws IOException if the type is unknown
+     */
+    public static int getType(String name) throws IOException {
+        switch (name) {
+            case "commit":
+                return COMMIT;
+            case "tree":
+                return TREE;
+            case "blob":
+                return BLOB;
+            case "tag":
+                return TAG;
+            default:
+                throw new IOException(String.format("Unknown git object type %s", name));
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package io.github.crimix.changedprojectstask.git;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads objects from the git object directories, both loose objects and objects in pack files.
+ * Object directories listed as alternates are also read.
+ * The database must be closed when it is no longer read, such that the pack files are unmapped.
+ */
+public class GitObjectDatabase implements Closeable {
+
+    private final List<File> objectDirs;
+    private final List<PackFile> packs = new ArrayList<>();
+
+    public GitObjectDatabase(File objectDir) throws IOException {
+        this.objectDirs = new ArrayList<>(findObjectDirs(objectDir, new LinkedHashSet<>()));
+        for (File dir : objectDirs) {
+            File[] indexFiles = new File(dir, "pack").listFiles((d, name) -> name.endsWith(".idx"));
+            if (indexFiles == null) {
+                continue;
+            }
+            //Sorted to get the same result on every run, no matter the file system order
+            Arrays.sort(indexFiles);
+            for (File indexFile : indexFiles) {
+                File packFile = new File(indexFile.getParentFile(), indexFile.getName().replace(".idx", ".pack"));
+                if (packFile.exists()) {
+                    try {
+                        packs.add(new PackFile(indexFile, packFile, this));
+                    } catch (IOException e) {
+                        close();
+                        throw e;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Unmaps the pack files, after which no more objects can be read.
+     */
+    @Override
+    public void close() {
+        packs.forEach(PackFile::close);
+    }
+
+    private static Set<File> findObjectDirs(File objectDir, Set<File> result) throws IOException {
+        if (!objectDir.isDirectory() || !result.add(objectDir.getCanonicalFile())) {
+            return result;
+        }
+        File alternates = new File(objectDir, "info/alternates");
+        if (alternates.exists()) {
+            for (String line : Files.readAllLines(alternates.toPath(), StandardCharsets.UTF_8)) {
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    File alternate = new File(line);
+                    findObjectDirs(alternate.isAbsolute() ? alternate : new File(objectDir, line), result);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the object.
+     * @param id the hexadecimal object id
+     * @return the object
+     * @throws IOException if the object does not exist or could not be read
+     */
+    public GitObject read(String id) throws IOException {
+        for (File dir : objectDirs) {
+            File looseObject = getLooseObjectFile(dir, id);
+            if (looseObject.exists()) {
+                return readLooseObject(looseObject);
+            }
+        }
+        byte[] binaryId = ObjectIds.fromHex(id);
+        for (PackFile pack : packs) {
+            GitObject object = pack.read(binaryId);
+            if (object != null) {
+                return object;
+            }
+        }
+        throw new IOException(String.format("Git object %s does not exist", id));
+    }
+
+    /**
+     * Returns whether the object exists.
+     * @param id the hexadecimal object id
+     * @return true if the object exists
+     */
+    public boolean contains(String id) {
+        for (File dir : objectDirs) {
+            if (getLooseObjectFile(dir, id).exists()) {
+                return true;
+            }
+        }
+        byte[] binaryId = ObjectIds.fromHex(id);
+        return packs.stream().anyMatch(pack -> pack.contains(binaryId));
+    }
+
+    /**
+     * Finds the ids of the objects starting with the hexadecimal prefix.
+     * @param prefix the hexadecimal prefix of at least two characters
+     * @return the ids of the matching objects
+     */
+    public Set<String> findByPrefix(String prefix) {
+        Set<String> result = new LinkedHashSet<>();
+        for (File dir : objectDirs) {
+            String[] names = new File(dir, prefix.substring(0, 2)).list();
+            if (names != null) {
+                for (String name : names) {
+                    String id = prefix.substring(0, 2) + name;
+                    if (id.startsWith(prefix) && ObjectIds.isObjectId(id)) {
+                        result.add(id);
+                    }
+                }
+            }
+        }
+        for (PackFile pack : packs) {
+            result.addAll(pack.findByPrefix(prefix));
+        }
+        return result;
+    }
+
+    private static File getLooseObjectFile(File dir, String id) {
+        return new File(dir, String.format("%s/%s", id.substring(0, 2), id.substring(2)));
+    }
+
+    private static GitObject readLooseObject(File file) throws IOException {
+        byte[] content;
+        try (InputStream in = new InflaterInputStream(Files.newInputStream(file.toPath()))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            in.transferTo(out);
+            content = out.toByteArray();
+        }
+        //The header is the type and size separated by a space and terminated by a zero byte
+        int headerEnd = 0;
+        while (headerEnd < content.length && content[headerEnd] != 0) {
+            headerEnd++;
+        }
+        String header = new String(content, 0, headerEnd, StandardCharsets.US_ASCII);
+        int space = header.indexOf(' ');
+        if (space < 0 || headerEnd == content.length) {
+            throw new IOException(String.format("Corrupt loose object %s", file));
+        }
+        return new GitObject(GitObject.getType(header.substring(0, space)), Arrays.copyOfRange(content, headerEnd + 1, content.length));
+    }
+}
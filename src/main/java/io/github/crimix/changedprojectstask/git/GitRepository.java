@@ -0,0 +1,403 @@
+package io.github.crimix.changedprojectstask.git;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * A git repository read directly from the git directory, such that revisions can be resolved and trees compared without forking git.
+ * Only the parts of git needed to diff two revisions are supported, anything else fails with an exception.
+ * The repository must be closed once it has been read, such that the pack files are unmapped.
+ */
+public class GitRepository implements Closeable {
+
+    private static final String HEAD = "HEAD";
+    private static final String SYMBOLIC_REF_PREFIX = "ref: ";
+    private static final int MIN_ABBREVIATED_LENGTH = 4;
+    //The order git uses when resolving a short ref name
+    private static final List<String> REF_FORMATS = List.of("%s", "refs/%s", "refs/tags/%s", "refs/heads/%s", "refs/remotes/%s", "refs/remotes/%s/HEAD");
+
+    private static final int PARENT1 = 1;
+    private static final int PARENT2 = 1 << 1;
+    private static final int STALE = 1 << 2;
+
+    private final File gitDir;
+    private final File commonDir;
+    private final GitObjectDatabase objectDatabase;
+    private final Map<String, GitCommit> commits = new HashMap<>();
+    private Map<String, String> packedRefs;
+
+    public GitRepository(File workTree) throws IOException {
+        this.gitDir = findGitDir(workTree);
+        this.commonDir = findCommonDir(gitDir);
+        checkSupported(commonDir);
+        this.objectDatabase = new GitObjectDatabase(new File(commonDir, "objects"));
+    }
+
+    /**
+     * Unmaps the pack files of the repository, after which it can no longer be read.
+     */
+    @Override
+    public void close() {
+        objectDatabase.close();
+    }
+
+    /**
+     * Returns whether the repository is a shallow clone, where the history before the commits it was cloned with is missing.
+     * @param workTree the root of the work tree
+     * @return true if the repository is shallow
+     * @throws IOException if the work tree is not the root of a git repository
+     */
+    public static boolean isShallow(File workTree) throws IOException {
+        return new File(findCommonDir(findGitDir(workTree)), "shallow").isFile();
+    }
+
+    private static File findGitDir(File workTree) throws IOException {
+        File dotGit = new File(workTree, ".git");
+        if (dotGit.isDirectory()) {
+            return dotGit;
+        } else if (dotGit.isFile()) {
+            //Worktrees and submodules have a .git file pointing to the actual git directory
+            String line = readFirstLine(dotGit);
+            if (!line.startsWith("gitdir: ")) {
+                throw new IOException(String.format("Invalid git file %s", dotGit));
+            }
+            File gitDir = new File(line.substring("gitdir: ".length()));
+            return gitDir.isAbsolute() ? gitDir : new File(workTree, gitDir.getPath());
+        } else {
+            throw new IOException(String.format("%s is not the root of a git repository", workTree));
+        }
+    }
+
+    private static File findCommonDir(File gitDir) throws IOException {
+        File commonDirFile = new File(gitDir, "commondir");
+        if (commonDirFile.exists()) {
+            //Linked worktrees keep their own HEAD but share the refs and objects with the main repository
+            File common = new File(readFirstLine(commonDirFile));
+            return common.isAbsolute() ? common : new File(gitDir, common.getPath());
+        }
+        return gitDir;
+    }
+
+    private static void checkSupported(File commonDir) throws IOException {
+        //Repositories using sha256 ids or reftable refs are stored differently
+        File config = new File(commonDir, "config");
+        if (config.exists()) {
+            for (String line : Files.readAllLines(config.toPath(), StandardCharsets.UTF_8)) {
+                String setting = line.replace(" ", "").replace("\t", "").toLowerCase(Locale.ROOT);
+                if (setting.startsWith("objectformat=") || setting.startsWith("refstorage=")) {
+                    throw new IOException(String.format("Unsupported repository extension %s", line.trim()));
+                }
+            }
+        }
+        //Grafts and replace refs changes the history git sees, so we let git handle those
+        if (new File(commonDir, "info/grafts").exists() || new File(commonDir, "refs/replace").isDirectory()) {
+            throw new IOException("Grafts and replace refs are not supported");
+        }
+    }
+
+    private static String readFirstLine(File file) throws IOException {
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        return lines.isEmpty() ? "" : lines.get(0).trim();
+    }
+
+    /**
+     * Resolves the revision to the id of a commit, supporting ref names, full and abbreviated ids and the ~ and ^ suffixes.
+     * @param revision the revision to resolve
+     * @return the hexadecimal id of the commit
+     * @throws IOException if the revision could not be resolved
+     */
+    public String resolve(String revision) throws IOException {
+        //Ref names cannot contain ~ or ^, so everything after the first of those are navigation suffixes
+        int suffixStart = indexOfSuffix(revision);
+        String name = revision.substring(0, suffixStart);
+        String id = resolveName(name.isEmpty() || name.equals("@") ? HEAD : name);
+
+        int position = suffixStart;
+        while (position < revision.length()) {
+            char operator = revision.charAt(position++);
+            int numberStart = position;
+            while (position < revision.length() && Character.isDigit(revision.charAt(position))) {
+                position++;
+            }
+            if (position < revision.length() && revision.charAt(position) != '~' && revision.charAt(position) != '^') {
+                throw new IOException(String.format("Unsupported revision %s", revision));
+            }
+            int number = numberStart == position ? 1 : parseRevisionNumber(revision, revision.substring(numberStart, position));
+            GitCommit commit = readCommit(id);
+            if (operator == '~') {
+                for (int i = 0; i < number; i++) {
+                    commit = readCommit(getParent(commit, 0, revision));
+                }
+                id = commit.getId();
+            } else if (number > 0) {
+                id = getParent(commit, number - 1, revision);
+            }
+        }
+        return peelToCommit(id);
+    }
+
+    private static int indexOfSuffix(String revision) {
+        for (int i = 0; i < revision.length(); i++) {
+            if (revision.charAt(i) == '~' || revision.charAt(i) == '^') {
+                return i;
+            }
+        }
+        return revision.length();
+    }
+
+    private static String getParent(GitCommit commit, int index, String revision) throws IOException {
+        if (index >= commit.getParents().size()) {
+            throw new IOException(String.format("Revision %s does not exist", revision));
+        }
+        return commit.getParents().get(index);
+    }
+
+    private static int parseRevisionNumber(String revision, String number) throws IOException {
+        try {
+            return Integer.parseInt(number);
+        } catch (NumberFormatException e) {
+            throw new IOException(String.format("Unsupported revision %s", revision), e);
+        }
+    }
+
+    private String resolveName(String name) throws IOException {
+        if (ObjectIds.isObjectId(name)) {
+            return name;
+        }
+        for (String format : REF_FORMATS) {
+            Optional<String> id = readRef(String.format(format, name), 0);
+            if (id.isPresent()) {
+                return id.get();
+            }
+        }
+        if (name.length() >= MIN_ABBREVIATED_LENGTH && ObjectIds.isHex(name)) {
+            Set<String> candidates = objectDatabase.findByPrefix(name);
+            if (candidates.size() == 1) {
+                return candidates.iterator().next();
+            } else if (candidates.size() > 1) {
+                throw new IOException(String.format("Abbreviated id %s is ambiguous", name));
+            }
+        }
+        throw new IOException(String.format("Revision %s does not exist", name));
+    }
+
+    private Optional<String> readRef(String name, int depth) throws IOException {
+        if (depth > 5) {
+            throw new IOException(String.format("Symbolic ref %s is nested too deep", name));
+        }
+        //Refs like HEAD belong to the worktree, while the rest are shared in the common directory
+        for (File dir : List.of(gitDir, commonDir)) {
+            File refFile = new File(dir, name);
+            if (refFile.isFile()) {
+                String content = readFirstLine(refFile);
+                if (content.startsWith(SYMBOLIC_REF_PREFIX)) {
+                    return readRef(content.substring(SYMBOLIC_REF_PREFIX.length()).trim(), depth + 1);
+                }
+                //Files like FETCH_HEAD have more information after the id
+                if (content.length() >= ObjectIds.HEX_LENGTH && ObjectIds.isObjectId(content.substring(0, ObjectIds.HEX_LENGTH))) {
+                    return Optional.of(content.substring(0, ObjectIds.HEX_LENGTH));
+                }
+                throw new IOException(String.format("Invalid ref %s", refFile));
+            }
+        }
+        return Optional.ofNullable(getPackedRefs().get(name));
+    }
+
+    private Map<String, String> getPackedRefs() throws IOException {
+        if (packedRefs == null) {
+            packedRefs = new HashMap<>();
+            File file = new File(commonDir, "packed-refs");
+            if (file.exists()) {
+                for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                    //Comments and the peeled ids of tags starting with ^ are skipped, as we peel tags ourselves
+                    if (line.length() > ObjectIds.HEX_LENGTH && !line.startsWith("#") && !line.startsWith("^")) {
+                        packedRefs.put(line.substring(ObjectIds.HEX_LENGTH + 1).trim(), line.substring(0, ObjectIds.HEX_LENGTH));
+                    }
+                }
+            }
+        }
+        return packedRefs;
+    }
+
+    private String peelToCommit(String id) throws IOException {
+        GitObject object = objectDatabase.read(id);
+        while (object.getType() == GitObject.TAG) {
+            String header = new String(object.getData(), StandardCharsets.UTF_8);
+            if (!header.startsWith("object ")) {
+                throw new IOException(String.format("Invalid tag %s", id));
+            }
+            id = header.substring("object ".length(), "object ".length() + ObjectIds.HEX_LENGTH);
+            object = objectDatabase.read(id);
+        }
+        if (object.getType() != GitObject.COMMIT) {
+            throw new IOException(String.format("Object %s is not a commit", id));
+        }
+        return id;
+    }
+
+    /**
+     * Reads the commit.
+     * @param id the hexadecimal id of the commit
+     * @return the commit
+     * @throws IOException if the commit does not exist or could not be read
+     */
+    public GitCommit readCommit(String id) throws IOException {
+        GitCommit cached = commits.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        GitObject object = objectDatabase.read(id);
+        if (object.getType() != GitObject.COMMIT) {
+            throw new IOException(String.format("Object %s is not a commit", id));
+        }
+        String tree = null;
+        List<String> parents = new ArrayList<>();
+        long commitTime = 0;
+        //The headers ends with the first empty line, after which the message follows
+        for (String line : new String(object.getData(), StandardCharsets.UTF_8).split("\n")) {
+            if (line.isEmpty()) {
+                break;
+            } else if (line.startsWith("tree ")) {
+                tree = line.substring("tree ".length());
+            } else if (line.startsWith("parent ")) {
+                parents.add(line.substring("parent ".length()));
+            } else if (line.startsWith("committer ")) {
+                //The committer ends with the time in seconds and the time zone
+                String[] parts = line.split(" ");
+                commitTime = Long.parseLong(parts[parts.length - 2]);
+            }
+        }
+        if (tree == null) {
+            throw new IOException(String.format("Commit %s has no tree", id));
+        }
+        GitCommit commit = new GitCommit(id, tree, parents, commitTime);
+        commits.put(id, commit);
+        return commit;
+    }
+
+    /**
+     * Reads the entries of the tree in the order git stores them.
+     * @param id the hexadecimal id of the tree
+     * @return the entries of the tree
+     * @throws IOException if the tree does not exist or could not be read
+     */
+    public List<TreeEntry> readTree(String id) throws IOException {
+        GitObject object = objectDatabase.read(id);
+        if (object.getType() != GitObject.TREE) {
+            throw new IOException(String.format("Object %s is not a tree", id));
+        }
+        //Each entry is the octal mode, a space, the name, a zero byte and the binary id
+        byte[] data = object.getData();
+        List<TreeEntry> entries = new ArrayList<>();
+        int position = 0;
+        while (position < data.length) {
+            int mode = 0;
+            while (data[position] != ' ') {
+                mode = (mode << 3) + (data[position++] - '0');
+            }
+            int nameStart = ++position;
+            while (data[position] != 0) {
+                position++;
+            }
+            byte[] rawName = new byte[position - nameStart];
+            System.arraycopy(data, nameStart, rawName, 0, rawName.length);
+            position++;
+            entries.add(new TreeEntry(mode, rawName, new String(rawName, StandardCharsets.UTF_8), ObjectIds.toHex(data, position)));
+            position += ObjectIds.LENGTH;
+        }
+        return entries;
+    }
+
+    /**
+     * Finds the best common ancestor of the two commits in the same way as git merge-base.
+     * When there are multiple best common ancestors, the most recent is returned like git diff does.
+     * @param first the hexadecimal id of the first commit
+     * @param second the hexadecimal id of the second commit
+     * @return the hexadecimal id of the merge base or empty if the commits have no common history
+     * @throws IOException if a commit could not be read
+     */
+    public Optional<String> mergeBase(String first, String second) throws IOException {
+        if (first.equals(second)) {
+            return Optional.of(first);
+        }
+        //We paint everything reachable from the first commit and the second commit, and the commits reached from both are merge bases
+        //unless they are reachable from another merge base, which we then mark as stale
+        Map<String, Integer> flags = new HashMap<>();
+        PriorityQueue<GitCommit> queue = new PriorityQueue<>(Comparator.comparingLong(GitCommit::getCommitTime).reversed());
+        List<String> result = new ArrayList<>();
+        flags.put(first, PARENT1);
+        flags.put(second, PARENT2);
+        queue.add(readCommit(first));
+        queue.add(readCommit(second));
+
+        while (queue.stream().anyMatch(c -> (flags.get(c.getId()) & STALE) == 0)) {
+            GitCommit commit = queue.poll();
+            int commitFlags = flags.get(commit.getId());
+            if ((commitFlags & (PARENT1 | PARENT2)) == (PARENT1 | PARENT2)) {
+                if (!result.contains(commit.getId())) {
+                    result.add(commit.getId());
+                }
+                commitFlags |= STALE;
+            }
+            for (String parent : commit.getParents()) {
+                int parentFlags = flags.getOrDefault(parent, 0);
+                if ((parentFlags & commitFlags) == commitFlags) {
+                    continue;
+                }
+                flags.put(parent, parentFlags | commitFlags);
+                queue.add(readCommit(parent));
+            }
+        }
+
+        return result.stream()
+                .filter(id -> (flags.get(id) & STALE) == 0)
+                .findFirst();
+    }
+
+    /**
+     * Finds the entry at the path in the tree.
+     * @param treeId the hexadecimal id of the root tree
+     * @param path the path relative to the root tree using / as separator
+     * @return the entry or empty if there is nothing at the path
+     * @throws IOException if a tree could not be read
+     */
+    public Optional<TreeEntry> findEntry(String treeId, String path) throws IOException {
+        String[] names = path.split("/");
+        String currentTree = treeId;
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            Optional<TreeEntry> entry = readTree(currentTree).stream()
+                    .filter(e -> e.getName().equals(name))
+                    .findFirst();
+            if (entry.isEmpty() || i == names.length - 1) {
+                return entry;
+            } else if (!entry.get().isTree()) {
+                return Optional.empty();
+            }
+            currentTree = entry.get().getId();
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Gets the tree of the commit.
+     * @param commitId the hexadecimal id of the commit
+     * @return the hexadecimal id of the root tree
+     * @throws IOException if the commit could not be read
+     */
+    public String getTree(String commitId) throws IOException {
+        return readCommit(commitId).getTree();
+    }
+}
@@ -0,0 +1,108 @@
+package io.github.crimix.changedprojectstask.git;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Compares two git trees and finds the paths of the files that differ.
+ * Subtrees with the same id are identical, so those are skipped without being read.
+ */
+public class GitTreeDiff {
+
+    private final GitRepository repository;
+
+    public GitTreeDiff(GitRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Finds the paths of the files that differ between the two trees, in the same order as git diff lists them.
+     * @param oldTree the hexadecimal id of the old tree
+     * @param newTree the hexadecimal id of the new tree
+     * @return the paths relative to the root of the trees
+     * @throws IOException if a tree could not be read
+     */
+    public List<String> diff(String oldTree, String newTree) throws IOException {
+        List<String> result = new ArrayList<>();
+        diff(oldTree, newTree, result::add);
+        return result;
+    }
+
+    /**
+     * Finds the paths of the files that differ between the two trees, in the same order as git diff lists them.
+     * @param oldTree the hexadecimal id of the old tree
+     * @param newTree the hexadecimal id of the new tree
+     * @param result receives the paths relative to the root of the trees as they are found
+     * @throws IOException if a tree could not be read
+     */
+    public void diff(String oldTree, String newTree, Consumer<String> result) throws IOException {
+        if (!oldTree.equals(newTree)) {
+            diff(repository.readTree(oldTree), repository.readTree(newTree), "", result);
+        }
+    }
+
+    private void diff(List<TreeEntry> oldEntries, List<TreeEntry> newEntries, String prefix, Consumer<String> result) throws IOException {
+        //Both lists are sorted the same way, so we can walk them together and compare the entries with the same name
+        int oldIndex = 0;
+        int newIndex = 0;
+        while (oldIndex < oldEntries.size() || newIndex < newEntries.size()) {
+            TreeEntry oldEntry = oldIndex < oldEntries.size() ? oldEntries.get(oldIndex) : null;
+            TreeEntry newEntry = newIndex < newEntries.size() ? newEntries.get(newIndex) : null;
+            int comparison;
+            if (oldEntry == null) {
+                comparison = 1;
+            } else if (newEntry == null) {
+                comparison = -1;
+            } else {
+                comparison = compare(oldEntry, newEntry);
+            }
+
+            if (comparison < 0) {
+                addAll(oldEntry, prefix, result);
+                oldIndex++;
+            } else if (comparison > 0) {
+                addAll(newEntry, prefix, result);
+                newIndex++;
+            } else {
+                if (oldEntry.getMode() != newEntry.getMode() || !oldEntry.getId().equals(newEntry.getId())) {
+                    if (oldEntry.isTree()) {
+                        diff(repository.readTree(oldEntry.getId()), repository.readTree(newEntry.getId()), prefix + oldEntry.getName() + "/", result);
+                    } else {
+                        result.accept(prefix + oldEntry.getName());
+                    }
+                }
+                oldIndex++;
+                newIndex++;
+            }
+        }
+    }
+
+    private void addAll(TreeEntry entry, String prefix, Consumer<String> result) throws IOException {
+        if (entry.isTree()) {
+            diff(Collections.emptyList(), repository.readTree(entry.getId()), prefix + entry.getName() + "/", result);
+        } else {
+            result.accept(prefix + entry.getName());
+        }
+    }
+
+    /**
+     * Compares the names the same way git sorts tree entries, where trees are sorted as if their name ended with a slash.
+     */
+    private static int compare(TreeEntry first, TreeEntry second) {
+        byte[] firstName = first.getRawName();
+        byte[] secondName = second.getRawName();
+        int length = Math.min(firstName.length, secondName.length);
+        for (int i = 0; i < length; i++) {
+            int comparison = Integer.compare(firstName[i] & 0xff, secondName[i] & 0xff);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        int firstNext = firstName.length > length ? firstName[length] & 0xff : (first.isTree() ? '/' : 0);
+        int secondNext = secondName.length > length ? secondName[length] & 0xff : (second.isTree() ? '/' : 0);
+        return Integer.compare(firstNext, secondNext);
+    }
+}
@@ -0,0 +1,100 @@
+package io.github.crimix.changedprojectstask.git;
+
+import io.github.crimix.changedprojectstask.utils.GitDiffRange;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Finds the changed files between two revisions by reading the git repository directly instead of forking git diff.
+ * The diff must be closed once it has been used, such that the repository is closed.
+ */
+public class InProcessGitDiff implements Closeable {
+
+    private static final String HEAD = "HEAD";
+
+    private final GitRepository repository;
+    private final MergeBaseCache mergeBaseCache;
+
+    public InProcessGitDiff(File gitRoot, MergeBaseCache mergeBaseCache) throws IOException {
+        this.repository = new GitRepository(gitRoot);
+        this.mergeBaseCache = mergeBaseCache;
+    }
+
+    /**
+     * Closes the repository.
+     */
+    @Override
+    public void close() {
+        repository.close();
+    }
+
+    /**
+     * Resolves the revisions of the range to commit ids, where a range from the merge base is resolved to the merge base itself.
+     * @param range the revisions to resolve
+     * @return the range between the two resolved commits
+     * @throws IOException if the range could not be resolved
+     */
+    public GitDiffRange resolve(GitDiffRange range) throws IOException {
+        String previous = repository.resolve(range.getPrevious());
+        String current = repository.resolve(range.getCurrent() == null ? HEAD : range.getCurrent());
+        if (range.isFromMergeBase()) {
+            previous = getMergeBase(previous, current)
+                    .orElseThrow(() -> new IOException(String.format("%s has no merge base", range.toGitArguments())));
+        }
+        return new GitDiffRange(previous, current, GitDiffRange.COMMITS);
+    }
+
+    private Optional<String> getMergeBase(String previous, String current) throws IOException {
+        Optional<String> cached = mergeBaseCache.get(previous, current);
+        if (cached.isPresent()) {
+            return cached;
+        }
+        Optional<String> mergeBase = repository.mergeBase(previous, current);
+        if (mergeBase.isPresent()) {
+            mergeBaseCache.put(previous, current, mergeBase.get());
+        }
+        return mergeBase;
+    }
+
+    /**
+     * Finds the changed files in the same way as git diff --name-only --no-renames would for the range.
+     * @param range the revisions to compare
+     * @return the paths of the changed files relative to the git root
+     * @throws IOException if the range could not be resolved or the repository could not be read
+     */
+    public List<String> getChangedFiles(GitDiffRange range) throws IOException {
+        List<String> result = new ArrayList<>();
+        getChangedFiles(range, result::add);
+        return result;
+    }
+
+    /**
+     * Finds the changed files in the same way as git diff --name-only --no-renames would for the range.
+     * @param range the revisions to compare
+     * @param result receives the paths of the changed files relative to the git root as they are found
+     * @throws IOException if the range could not be resolved or the repository could not be read
+     */
+    public void getChangedFiles(GitDiffRange range, Consumer<String> result) throws IOException {
+        GitDiffRange resolved = resolve(range);
+        new GitTreeDiff(repository).diff(repository.getTree(resolved.getPrevious()), repository.getTree(resolved.getCurrent()), result);
+    }
+
+    /**
+     * Finds the commit a gitlink, like a submodule, points to in the revision.
+     * @param revision the revision of this repository
+     * @param path the path of the gitlink relative to the git root
+     * @return the hexadecimal id of the commit in the nested repository or empty if there is no gitlink at the path
+     * @throws IOException if the revision could not be resolved or the repository could not be read
+     */
+    public Optional<String> findGitlink(String revision, String path) throws IOException {
+        return repository.findEntry(repository.getTree(repository.resolve(revision)), path)
+                .filter(TreeEntry::isGitlink)
+                .map(TreeEntry::getId);
+    }
+}
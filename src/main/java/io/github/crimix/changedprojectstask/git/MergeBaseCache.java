@@ -0,0 +1,81 @@
+package io.github.crimix.changedprojectstask.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Stores the merge bases of pairs of commits between runs.
+ * A merge base is keyed by the ids of the two commits and never changes for those, so the entries never becomes stale,
+ * which means the expensive walk of the history is only done the first time a pair of commits is compared.
+ */
+public class MergeBaseCache {
+
+    //The cache is cleared when it grows beyond this, as old pairs of commits are rarely compared again
+    private static final int MAX_ENTRIES = 1000;
+
+    private final File file;
+    private final Properties mergeBases = new Properties();
+    private boolean changed;
+
+    public MergeBaseCache(File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                mergeBases.load(in);
+            }
+        }
+    }
+
+    /**
+     * Gets the cached merge base of the two commits.
+     * @param first the hexadecimal id of the first commit
+     * @param second the hexadecimal id of the second commit
+     * @return the hexadecimal id of the merge base or empty if it has not been cached
+     */
+    public synchronized Optional<String> get(String first, String second) {
+        return Optional.ofNullable(mergeBases.getProperty(getKey(first, second)));
+    }
+
+    /**
+     * Caches the merge base of the two commits, which is first stored when calling {@link #store()}.
+     * @param first the hexadecimal id of the first commit
+     * @param second the hexadecimal id of the second commit
+     * @param mergeBase the hexadecimal id of the merge base
+     */
+    public synchronized void put(String first, String second, String mergeBase) {
+        if (mergeBases.size() >= MAX_ENTRIES) {
+            mergeBases.clear();
+        }
+        mergeBases.setProperty(getKey(first, second), mergeBase);
+        changed = true;
+    }
+
+    /**
+     * Stores the cache if any merge bases have been added.
+     * @throws IOException if the cache could not be written
+     */
+    public synchronized void store() throws IOException {
+        if (!changed) {
+            return;
+        }
+        //Written to a temporary file first, such that concurrent builds never read a partially written cache
+        Files.createDirectories(file.getParentFile().toPath());
+        Path temporary = Files.createTempFile(file.getParentFile().toPath(), file.getName(), ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporary)) {
+            mergeBases.store(out, "Merge bases of compared commits");
+        }
+        Files.move(temporary, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        changed = false;
+    }
+
+    private static String getKey(String first, String second) {
+        return first + "..." + second;
+    }
+}
@@ -0,0 +1,68 @@
+package io.github.crimix.changedprojectstask.git;
+
+/**
+ * Helpers for converting git object ids between their binary and hexadecimal forms
+ */
+public class ObjectIds {
+
+    public static final int LENGTH = 20;
+    public static final int HEX_LENGTH = LENGTH * 2;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ObjectIds() {
+    }
+
+    /**
+     * Converts the binary id at the offset to its hexadecimal form.
+     * @param bytes the bytes containing the id
+     * @param offset the offset of the id
+     * @return the id in hexadecimal form
+     */
+    public static String toHex(byte[] bytes, int offset) {
+        char[] result = new char[HEX_LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            int b = bytes[offset + i] & 0xff;
+            result[i * 2] = HEX[b >>> 4];
+            result[i * 2 + 1] = HEX[b & 0xf];
+        }
+        return new String(result);
+    }
+
+    /**
+     * Converts the hexadecimal id to its binary form.
+     * @param hex the id in hexadecimal form
+     * @return the id in binary form
+     */
+    public static byte[] fromHex(String hex) {
+        byte[] result = new byte[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            result[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether the string is a full hexadecimal object id.
+     * @param value the string to check
+     * @return true if the string is a full object id
+     */
+    public static boolean isObjectId(String value) {
+        return value.length() == HEX_LENGTH && isHex(value);
+    }
+
+    /**
+     * Returns whether the string only contains lower case hexadecimal characters.
+     * @param value the string to check
+     * @return true if the string only contains hexadecimal characters
+     */
+    public static boolean isHex(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return !value.isEmpty();
+    }
+}
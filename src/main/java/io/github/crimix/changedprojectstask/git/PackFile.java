@@ -0,0 +1,360 @@
+package io.github.crimix.changedprojectstask.git;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A git pack file together with its version 2 index, both memory mapped such that only the parts that are read are loaded.
+ * The pack must be closed when it is no longer read, as the mappings otherwise last until they are garbage collected,
+ * which in a long-lived Gradle daemon keeps the address space in use and on Windows keeps git gc from replacing the pack.
+ */
+public class PackFile implements Closeable {
+
+    private static final int INDEX_MAGIC = 0xff744f63;
+    private static final int FANOUT_OFFSET = 8;
+    private static final int FANOUT_SIZE = 256 * 4;
+    private static final int PACK_HEADER_SIZE = 12;
+
+    private static final int OFS_DELTA = 6;
+    private static final int REF_DELTA = 7;
+
+    //Delta chains often share their bases, so we keep the most recently read objects around
+    private static final int CACHE_SIZE = 1024;
+    private static final Consumer<ByteBuffer> UNMAPPER = findUnmapper();
+
+    private final File packFile;
+    private final GitObjectDatabase database;
+    private final MappedByteBuffer index;
+    private final MappedByteBuffer pack;
+    private final int objectCount;
+    private final int idsOffset;
+    private final int offsetsOffset;
+    private final int largeOffsetsOffset;
+    private final Map<Integer, GitObject> cache = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, GitObject> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private boolean closed;
+
+    public PackFile(File indexFile, File packFile, GitObjectDatabase database) throws IOException {
+        this.packFile = packFile;
+        this.database = database;
+        this.index = map(indexFile);
+        try {
+            this.pack = map(packFile);
+        } catch (IOException e) {
+            UNMAPPER.accept(index);
+            throw e;
+        }
+        if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != 2) {
+            close();
+            throw new IOException(String.format("Unsupported pack index version %s", indexFile));
+        }
+        this.objectCount = index.getInt(FANOUT_OFFSET + 255 * 4);
+        this.idsOffset = FANOUT_OFFSET + FANOUT_SIZE;
+        //The crc values comes after the ids and before the offsets, but we do not need them
+        this.offsetsOffset = idsOffset + objectCount * ObjectIds.LENGTH + objectCount * 4;
+        this.largeOffsetsOffset = offsetsOffset + objectCount * 4;
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(String.format("Pack file %s is too large to be mapped", file));
+            }
+            //The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static Consumer<ByteBuffer> findUnmapper() {
+        //There is no public API to unmap a buffer, so the cleaner is invoked the same way as other libraries reading memory mapped files do
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            return buffer -> {
+                try {
+                    invokeCleaner.invoke(unsafe, buffer);
+                } catch (ReflectiveOperationException ignored) {
+                    //The mapping is then released when the buffer is garbage collected
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            //The mappings are then released when the buffers are garbage collected
+            return buffer -> {
+            };
+        }
+    }
+
+    /**
+     * Unmaps the pack and its index, after which the pack can no longer be read.
+     */
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            cache.clear();
+            UNMAPPER.accept(index);
+            UNMAPPER.accept(pack);
+        }
+    }
+
+    private void checkOpen() {
+        //Reading an unmapped buffer crashes the JVM, so this must never happen
+        if (closed) {
+            throw new IllegalStateException(String.format("Pack file %s is closed", packFile));
+        }
+    }
+
+    /**
+     * Returns whether the pack contains the object.
+     * @param id the object id in binary form
+     * @return true if the pack contains the object
+     */
+    public synchronized boolean contains(byte[] id) {
+        checkOpen();
+        return findPosition(id) >= 0;
+    }
+
+    /**
+     * Reads the object from the pack.
+     * @param id the object id in binary form
+     * @return the object or null if the pack does not contain it
+     * @throws IOException if the pack is corrupt
+     */
+    public synchronized GitObject read(byte[] id) throws IOException {
+        checkOpen();
+        int position = findPosition(id);
+        if (position < 0) {
+            return null;
+        }
+        return readAt(getOffset(position));
+    }
+
+    /**
+     * Finds the ids of the objects in the pack starting with the hexadecimal prefix.
+     * @param prefix the hexadecimal prefix of at least two characters
+     * @return the ids of the matching objects
+     */
+    public synchronized List<String> findByPrefix(String prefix) {
+        checkOpen();
+        int firstByte = Integer.parseInt(prefix.substring(0, 2), 16);
+        int low = firstByte == 0 ? 0 : index.getInt(FANOUT_OFFSET + (firstByte - 1) * 4);
+        int high = index.getInt(FANOUT_OFFSET + firstByte * 4);
+        byte[] id = new byte[ObjectIds.LENGTH];
+        List<String> result = new ArrayList<>();
+        for (int i = low; i < high; i++) {
+            readBytes(index, idsOffset + i * ObjectIds.LENGTH, id);
+            String hex = ObjectIds.toHex(id, 0);
+            if (hex.startsWith(prefix)) {
+                result.add(hex);
+            }
+        }
+        return result;
+    }
+
+    private int findPosition(byte[] id) {
+        //The fanout table tells us the range of ids starting with the same first byte, which we then binary search
+        int firstByte = id[0] & 0xff;
+        int low = firstByte == 0 ? 0 : index.getInt(FANOUT_OFFSET + (firstByte - 1) * 4);
+        int high = index.getInt(FANOUT_OFFSET + firstByte * 4) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compareId(middle, id);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private int compareId(int position, byte[] id) {
+        int offset = idsOffset + position * ObjectIds.LENGTH;
+        for (int i = 0; i < ObjectIds.LENGTH; i++) {
+            int comparison = Integer.compare(index.get(offset + i) & 0xff, id[i] & 0xff);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return 0;
+    }
+
+    private int getOffset(int position) throws IOException {
+        int offset = index.getInt(offsetsOffset + position * 4);
+        if ((offset & 0x80000000) == 0) {
+            return offset;
+        }
+        long largeOffset = index.getLong(largeOffsetsOffset + (offset & 0x7fffffff) * 8);
+        if (largeOffset > Integer.MAX_VALUE) {
+            throw new IOException(String.format("Pack file %s is too large to be read", packFile));
+        }
+        return (int) largeOffset;
+    }
+
+    private GitObject readAt(int offset) throws IOException {
+        GitObject cached = cache.get(offset);
+        if (cached != null) {
+            return cached;
+        }
+        if (offset < PACK_HEADER_SIZE || offset >= pack.limit()) {
+            throw new IOException(String.format("Invalid object offset %d in %s", offset, packFile));
+        }
+
+        //The header is the type and the variable length encoded inflated size
+        int position = offset;
+        int c = pack.get(position++) & 0xff;
+        int type = (c >> 4) & 7;
+        long size = c & 0x0f;
+        int shift = 4;
+        while ((c & 0x80) != 0) {
+            c = pack.get(position++) & 0xff;
+            size |= (long) (c & 0x7f) << shift;
+            shift += 7;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(String.format("Object at %d in %s is too large", offset, packFile));
+        }
+
+        GitObject result;
+        if (type == OFS_DELTA) {
+            c = pack.get(position++) & 0xff;
+            long baseDistance = c & 0x7f;
+            while ((c & 0x80) != 0) {
+                c = pack.get(position++) & 0xff;
+                baseDistance = ((baseDistance + 1) << 7) | (c & 0x7f);
+            }
+            GitObject base = readAt((int) (offset - baseDistance));
+            result = new GitObject(base.getType(), applyDelta(base.getData(), inflate(position, (int) size)));
+        } else if (type == REF_DELTA) {
+            byte[] baseId = new byte[ObjectIds.LENGTH];
+            readBytes(pack, position, baseId);
+            position += ObjectIds.LENGTH;
+            GitObject base = database.read(ObjectIds.toHex(baseId, 0));
+            result = new GitObject(base.getType(), applyDelta(base.getData(), inflate(position, (int) size)));
+        } else if (type >= GitObject.COMMIT && type <= GitObject.TAG) {
+            result = new GitObject(type, inflate(position, (int) size));
+        } else {
+            throw new IOException(String.format("Unknown object type %d at %d in %s", type, offset, packFile));
+        }
+
+        cache.put(offset, result);
+        return result;
+    }
+
+    private static void readBytes(ByteBuffer buffer, int position, byte[] destination) {
+        //Absolute bulk reads are not available in Java 11, so we read from a duplicate to not move the shared position
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position);
+        duplicate.get(destination);
+    }
+
+    private byte[] inflate(int position, int size) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            //The inflater only consumes as much of the pack as the compressed object needs
+            ByteBuffer input = pack.duplicate();
+            input.position(position);
+            inflater.setInput(input);
+            byte[] result = new byte[size];
+            int inflated = 0;
+            while (inflated < size) {
+                int count = inflater.inflate(result, inflated, size - inflated);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+            if (inflated != size) {
+                throw new IOException(String.format("Corrupt object at %d in %s", position, packFile));
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new IOException(String.format("Corrupt object at %d in %s", position, packFile), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] applyDelta(byte[] base, byte[] delta) throws IOException {
+        int position = 0;
+        //The delta starts with the size of the base and the size of the result
+        long baseSize = 0;
+        int shift = 0;
+        int c;
+        do {
+            c = delta[position++] & 0xff;
+            baseSize |= (long) (c & 0x7f) << shift;
+            shift += 7;
+        } while ((c & 0x80) != 0);
+        if (baseSize != base.length) {
+            throw new IOException("Delta base size does not match");
+        }
+        long resultSize = 0;
+        shift = 0;
+        do {
+            c = delta[position++] & 0xff;
+            resultSize |= (long) (c & 0x7f) << shift;
+            shift += 7;
+        } while ((c & 0x80) != 0);
+
+        byte[] result = new byte[(int) resultSize];
+        int resultPosition = 0;
+        while (position < delta.length) {
+            int instruction = delta[position++] & 0xff;
+            if ((instruction & 0x80) != 0) {
+                //Copy from the base, the lower bits tells which offset and size bytes are present
+                int copyOffset = 0;
+                int copySize = 0;
+                for (int i = 0; i < 4; i++) {
+                    if ((instruction & (1 << i)) != 0) {
+                        copyOffset |= (delta[position++] & 0xff) << (i * 8);
+                    }
+                }
+                for (int i = 0; i < 3; i++) {
+                    if ((instruction & (0x10 << i)) != 0) {
+                        copySize |= (delta[position++] & 0xff) << (i * 8);
+                    }
+                }
+                if (copySize == 0) {
+                    copySize = 0x10000;
+                }
+                System.arraycopy(base, copyOffset, result, resultPosition, copySize);
+                resultPosition += copySize;
+            } else if (instruction != 0) {
+                //Insert the following bytes from the delta
+                System.arraycopy(delta, position, result, resultPosition, instruction);
+                position += instruction;
+                resultPosition += instruction;
+            } else {
+                throw new IOException("Invalid delta instruction");
+            }
+        }
+        if (resultPosition != result.length) {
+            throw new IOException("Delta result size does not match");
+        }
+        return result;
+    }
+}
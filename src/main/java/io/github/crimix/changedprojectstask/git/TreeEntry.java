@@ -0,0 +1,42 @@
+package io.github.crimix.changedprojectstask.git;
+
+import lombok.Data;
+
+/**
+ * An entry of a git tree object.
+ * The getters are auto-generated by Lombok
+ */
+@Data
+public class TreeEntry {
+    public static final int TREE_MODE = 0040000;
+    public static final int GITLINK_MODE = 0160000;
+    private static final int TYPE_MASK = 0170000;
+
+    /**
+     * The file mode of the entry
+     */
+    private final int mode;
+
+    /**
+     * The name as stored in the tree, used for sorting in the same order as git
+     */
+    private final byte[] rawName;
+
+    /**
+     * The name decoded as UTF-8
+     */
+    private final String name;
+
+    /**
+     * The hexadecimal id of the object the entry points to
+     */
+    private final String id;
+
+    public boolean isTree() {
+        return (mode & TYPE_MASK) == TREE_MODE;
+    }
+
+    public boolean isGitlink() {
+        return (mode & TYPE_MASK) == GITLINK_MODE;
+    }
+}
@@ -0,0 +1,172 @@
+package io.github.crimix.changedprojectstask.providers;
+
+import io.github.crimix.changedprojectstask.configuration.ChangedProjectsConfiguration;
+import io.github.crimix.changedprojectstask.extensions.Extensions;
+import io.github.crimix.changedprojectstask.utils.ClassFileAbiReader;
+import lombok.SneakyThrows;
+import lombok.experimental.ExtensionMethod;
+import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.tasks.SourceSet;
+import org.gradle.api.tasks.SourceSetContainer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * This class is responsible for fingerprinting the public API of projects based on their compiled main classes,
+ * such that we can tell whether a change to a project can affect the projects depending on it.
+ * The fingerprints are stored between runs in the plugin's data directory.
+ */
+@ExtensionMethod(Extensions.class)
+public class AbiFingerprintProvider {
+
+    private static final String FINGERPRINTS_FILE = "abi-fingerprints.properties";
+    private static final String NO_CLASSES = "none";
+
+    private final ChangedProjectsConfiguration extension;
+    private final File fingerprintsFile;
+    private final Properties storedFingerprints;
+    private final Map<Project, String> currentFingerprints = new ConcurrentHashMap<>();
+
+    public AbiFingerprintProvider(Project project, ChangedProjectsConfiguration extension) {
+        this.extension = extension;
+        this.fingerprintsFile = new File(project.getPluginDataDir(), FINGERPRINTS_FILE);
+        this.storedFingerprints = loadFingerprints();
+    }
+
+    @SneakyThrows(IOException.class)
+    private Properties loadFingerprints() {
+        Properties properties = new Properties();
+        if (fingerprintsFile.exists()) {
+            try (InputStream in = Files.newInputStream(fingerprintsFile.toPath())) {
+                properties.load(in);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Gets the task that compiles the main classes of the project, which must have run before the fingerprint is taken.
+     * @param project the project to find the task for
+     * @return the task or an empty optional if the project does not have main classes
+     */
+    public Optional<Task> getClassesTask(Project project) {
+        return getMainSourceSet(project)
+                .map(SourceSet::getClassesTaskName)
+                .map(name -> project.getTasks().findByName(name));
+    }
+
+    /**
+     * Returns whether the public API of the project has changed compared to the last stored fingerprint.
+     * A project without a stored fingerprint is always seen as changed.
+     * This must only be called after the classes task of the project has been run.
+     * @param project the project to check
+     * @return true if the public API of the project has changed
+     */
+    public boolean hasAbiChanged(Project project) {
+        String current = getFingerprint(project);
+        boolean changed = NO_CLASSES.equals(current) || !current.equals(storedFingerprints.getProperty(project.getPath()));
+
+        if (extension.shouldLog()) {
+            project.getLogger().lifecycle("Public API of {} changed? {}", project, changed);
+        }
+
+        return changed;
+    }
+
+    /**
+     * Stores the current fingerprints of the projects, this should only be done after a successful run.
+     * @param projects the projects to store the fingerprints for
+     */
+    @SneakyThrows(IOException.class)
+    public void storeFingerprints(Set<Project> projects) {
+        for (Project p : projects) {
+            String fingerprint = getFingerprint(p);
+            if (!NO_CLASSES.equals(fingerprint)) {
+                storedFingerprints.setProperty(p.getPath(), fingerprint);
+            }
+        }
+        Files.createDirectories(fingerprintsFile.getParentFile().toPath());
+        try (OutputStream out = Files.newOutputStream(fingerprintsFile.toPath())) {
+            storedFingerprints.store(out, "Public API fingerprints of projects from the last successful run");
+        }
+    }
+
+    /**
+     * Forgets the fingerprints taken so far, such that the classes are fingerprinted again the next time they are needed.
+     * This must be done when the classes have been compiled by another Gradle process after they were fingerprinted.
+     */
+    public void forgetFingerprints() {
+        currentFingerprints.clear();
+    }
+
+    private String getFingerprint(Project project) {
+        //A project is only fingerprinted once per build, as the classes are not compiled again
+        return currentFingerprints.computeIfAbsent(project, this::computeFingerprint);
+    }
+
+    @SneakyThrows
+    private String computeFingerprint(Project project) {
+        Set<File> classesDirs = getMainSourceSet(project)
+                .map(sourceSet -> sourceSet.getOutput().getClassesDirs().getFiles())
+                .orElse(Collections.emptySet());
+
+        List<Path> classFiles = new ArrayList<>();
+        for (File classesDir : classesDirs) {
+            if (classesDir.isDirectory()) {
+                try (Stream<Path> files = Files.walk(classesDir.toPath())) {
+                    classFiles.addAll(files.filter(file -> file.toString().endsWith(".class")).collect(Collectors.toList()));
+                }
+            }
+        }
+        if (classFiles.isEmpty()) {
+            return NO_CLASSES;
+        }
+
+        //The lines are sorted such that the fingerprint does not depend on the file system order
+        List<String> lines = new ArrayList<>();
+        for (Path classFile : classFiles) {
+            try (InputStream in = Files.newInputStream(classFile)) {
+                lines.addAll(ClassFileAbiReader.readAbi(in));
+            } catch (IOException e) {
+                //If we cannot read the class, we cannot tell if the API changed, so we assume it did
+                project.getLogger().warn("Could not read public API of {}: {}", classFile, e.getMessage());
+                return NO_CLASSES;
+            }
+        }
+        lines.sort(String::compareTo);
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        for (String line : lines) {
+            digest.update(line.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        StringBuilder result = new StringBuilder();
+        for (byte b : digest.digest()) {
+            result.append(String.format("%02x", b));
+        }
+        return result.toString();
+    }
+
+    private Optional<SourceSet> getMainSourceSet(Project project) {
+        return Optional.ofNullable(project.getExtensions().findByType(SourceSetContainer.class))
+                .map(sourceSets -> sourceSets.findByName(SourceSet.MAIN_SOURCE_SET_NAME));
+    }
+}
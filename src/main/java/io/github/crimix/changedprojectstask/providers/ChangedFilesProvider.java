@@ -1,19 +1,36 @@
 package io.github.crimix.changedprojectstask.providers;
 
 import io.github.crimix.changedprojectstask.configuration.ChangedProjectsConfiguration;
+import io.github.crimix.changedprojectstask.events.GitDiffEvent;
+import io.github.crimix.changedprojectstask.events.PathFilterEvent;
 import io.github.crimix.changedprojectstask.extensions.Extensions;
+import io.github.crimix.changedprojectstask.git.GitRepository;
+import io.github.crimix.changedprojectstask.git.InProcessGitDiff;
+import io.github.crimix.changedprojectstask.git.MergeBaseCache;
+import io.github.crimix.changedprojectstask.utils.ChangedPaths;
 import io.github.crimix.changedprojectstask.utils.CollectingOutputStream;
+import io.github.crimix.changedprojectstask.utils.GitDiffRange;
+import io.github.crimix.changedprojectstask.utils.LoggingOutputStream;
+import io.github.crimix.changedprojectstask.utils.ProcessTreeWatchdog;
 import lombok.SneakyThrows;
 import lombok.experimental.ExtensionMethod;
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.ExecuteException;
 import org.apache.commons.exec.PumpStreamHandler;
 import org.gradle.api.Project;
 import org.gradle.api.logging.Logger;
 
 import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -21,98 +38,287 @@ import java.util.stream.Collectors;
 @ExtensionMethod(Extensions.class)
 public class ChangedFilesProvider {
 
+    private static final String HEAD = "HEAD";
+    private static final String MERGE_BASE_CACHE_FILE = "merge-bases.properties";
+    private static final int[] SUCCESS_EXIT_VALUES = {0};
+    //git merge-base exits with 1 without any output when the commits have no merge base
+    private static final int[] MERGE_BASE_EXIT_VALUES = {0, 1};
+
     private final Project project;
     private final ChangedProjectsConfiguration extension;
     private final GitCommandProvider gitCommandProvider;
-    private final List<File> filteredChanges;
+    private final Predicate<String> ignoredFilter;
+    private final Predicate<String> affectsAllFilter;
+    private final ChangedPaths filteredChanges;
     private final boolean affectsAllProjects;
+    private final String affectsAllPath;
+    private final MergeBaseCache mergeBaseCache;
+    private boolean usedGitProcess;
+    private GitDiffRange resolvedRange;
+    //The paths of the checked out nested repositories, which changes are resolved into the files changed inside them
+    private Set<String> nestedRoots = Collections.emptySet();
+    private Map<String, List<String>> resolvedNestedRoots = Collections.emptyMap();
+    //Only set when the changed files are found by comparing with the snapshot of the last successful run instead of using git
+    private SnapshotChangeDetector snapshotChangeDetector;
 
     public ChangedFilesProvider(Project project, ChangedProjectsConfiguration extension) {
         this.project = project;
         this.extension = extension;
         this.gitCommandProvider = new GitCommandProvider(project);
-        List<String> gitFilteredChanges = initFilteredChanges();
-        this.filteredChanges = initFilteredChangedFiles(gitFilteredChanges);
-        this.affectsAllProjects = initAffectsAllProjects(gitFilteredChanges);
+        this.ignoredFilter = createFilter(extension.getIgnoredRegex().getOrElse(Collections.emptySet()));
+        this.affectsAllFilter = createFilter(extension.getAffectsAllRegex().getOrElse(Collections.emptySet()));
+        this.mergeBaseCache = loadMergeBaseCache(project);
+        FilteringCollector changes = initFilteredChanges();
+        this.filteredChanges = changes.paths.build();
+        this.affectsAllProjects = changes.affectsAll;
+        this.affectsAllPath = changes.affectsAllPath;
     }
 
-    @SneakyThrows
-    private List<String> initFilteredChanges() {
+    private FilteringCollector initFilteredChanges() {
         File gitRoot = project.getGitRootDir();
-        if (gitRoot == null) {
-            throw new IllegalStateException("The project does not have a git root");
+        if (gitRoot == null || project.shouldUseSnapshot()) {
+            return findSnapshotChanges();
+        }
+
+        //The range is evaluated first, such that a wrong configuration fails instead of falling back to the git process
+        GitDiffRange range = gitCommandProvider.getGitDiffRange();
+        GitDiffEvent event = new GitDiffEvent();
+        event.begin();
+        nestedRoots = NestedRepositoryDiff.findNestedRoots(gitRoot);
+        FilteringCollector changes;
+        try {
+            changes = project.shouldUseGitProcess()
+                    ? runGitDiff(gitRoot, range)
+                    : diffInProcess(gitRoot, range).orElseGet(() -> runGitDiff(gitRoot, range));
+        } catch (Exception e) {
+            if (!isShallow(gitRoot)) {
+                throw e;
+            }
+            //A shallow clone is usually missing the previous commit, like HEAD~ in a clone of depth 1
+            project.getLogger().warn("Could not compare {} in the shallow clone, comparing with the snapshot of the last successful run instead: {}",
+                    range.toGitArguments(), e.getMessage());
+            nestedRoots = Collections.emptySet();
+            return findSnapshotChanges();
+        }
+        if (!changes.changedNestedRoots.isEmpty()) {
+            //The nested repositories are compared from other threads, so the git process is given what it needs instead of reading it from the Gradle model
+            Duration gitTimeout = extension.getGitTimeout().getOrNull();
+            Logger logger = project.getLogger();
+            NestedRepositoryDiff nestedDiff = new NestedRepositoryDiff(gitCommandProvider, (root, command) -> runGit(root, command, gitTimeout, logger),
+                    mergeBaseCache, project.shouldUseGitProcess(), logger);
+            resolvedNestedRoots = nestedDiff.diff(gitRoot, resolvedRange, changes.changedNestedRoots);
+            resolvedNestedRoots.values().forEach(paths -> paths.forEach(changes::filter));
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.range = range.toGitArguments();
+            event.resolvedRange = resolvedRange.toGitArguments();
+            event.gitProcess = usedGitProcess;
+            event.changedFiles = changes.count;
+            event.commit();
+        }
+        changes.commitFilterEvent();
+        storeMergeBaseCache();
+
+        if (changes.count == 0) {
+            throw new IllegalStateException("Git diff returned no results this must be a mistake");
+        }
+        return changes;
+    }
+
+    @SneakyThrows(IOException.class)
+    private FilteringCollector findSnapshotChanges() {
+        snapshotChangeDetector = new SnapshotChangeDetector(project, ignoredFilter);
+        FilteringCollector changes = new FilteringCollector();
+        //There are no nested repositories to resolve, as the files inside them are hashed like any other file
+        snapshotChangeDetector.findChangedFiles(changes::filter);
+        changes.commitFilterEvent();
+        if (!snapshotChangeDetector.hasStoredSnapshot()) {
+            project.getLogger().warn("There is no snapshot of an earlier successful run to compare with, so all files are changed");
+        }
+        return changes;
+    }
+
+    private static boolean isShallow(File gitRoot) {
+        try {
+            return GitRepository.isShallow(gitRoot);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @SneakyThrows(IOException.class)
+    private static MergeBaseCache loadMergeBaseCache(Project project) {
+        return new MergeBaseCache(new File(project.getPluginDataDir(), MERGE_BASE_CACHE_FILE));
+    }
+
+    private Optional<FilteringCollector> diffInProcess(File gitRoot, GitDiffRange range) {
+        try (InProcessGitDiff diff = new InProcessGitDiff(gitRoot, mergeBaseCache)) {
+            GitDiffRange resolved = diff.resolve(range);
+            FilteringCollector changes = new FilteringCollector();
+            diff.getChangedFiles(resolved, changes);
+            resolvedRange = resolved;
+            return Optional.of(changes);
+        } catch (IOException e) {
+            //Anything the in process diff does not support, like history missing in shallow clones, is left for git itself to handle,
+            //while any other exception is a bug in the in process diff, which should fail the build instead of being hidden by the fallback
+            if (extension.shouldLog()) {
+                project.getLogger().lifecycle("Could not diff {} in process, running git diff instead: {}", range.toGitArguments(), e.getMessage());
+            } else {
+                project.getLogger().info("Could not diff {} in process, running git diff instead: {}", range.toGitArguments(), e.getMessage());
+            }
+            return Optional.empty();
+        }
+    }
+
+    private FilteringCollector runGitDiff(File gitRoot, GitDiffRange range) {
+        usedGitProcess = true;
+        resolvedRange = resolveWithGit(gitRoot, range);
+        FilteringCollector changes = new FilteringCollector();
+        runGit(gitRoot, gitCommandProvider.getGitDiffCommand(resolvedRange), changes);
+        return changes;
+    }
+
+    private GitDiffRange resolveWithGit(File gitRoot, GitDiffRange range) {
+        if (!range.isFromMergeBase()) {
+            return range;
         }
+        //We resolve the tips ourselves, such that the merge base can be looked up in the cache before asking git to find it
+        String current = range.getCurrent() == null ? HEAD : range.getCurrent();
+        List<String> tips = runGit(gitRoot, String.format("git rev-parse %s^{commit} %s^{commit}", range.getPrevious(), current));
+        if (tips.size() != 2) {
+            throw new IllegalStateException(String.format("Failed to resolve %s using git rev-parse", range.toGitArguments()));
+        }
+        String mergeBase = mergeBaseCache.get(tips.get(0), tips.get(1))
+                .orElseGet(() -> {
+                    List<String> result = new ArrayList<>();
+                    runGit(gitRoot, String.format("git merge-base %s %s", tips.get(0), tips.get(1)), result::add,
+                            extension.getGitTimeout().getOrNull(), project.getLogger(), MERGE_BASE_EXIT_VALUES);
+                    if (result.isEmpty()) {
+                        throw new IllegalStateException(String.format("%s has no merge base", range.toGitArguments()));
+                    }
+                    mergeBaseCache.put(tips.get(0), tips.get(1), result.get(0));
+                    return result.get(0);
+                });
+        return new GitDiffRange(mergeBase, tips.get(1), GitDiffRange.COMMITS);
+    }
 
-        CollectingOutputStream stdout = new CollectingOutputStream();
+    private List<String> runGit(File gitRoot, String command) {
+        return runGit(gitRoot, command, extension.getGitTimeout().getOrNull(), project.getLogger());
+    }
+
+    private void runGit(File gitRoot, String command, Consumer<String> lineConsumer) {
+        runGit(gitRoot, command, lineConsumer, extension.getGitTimeout().getOrNull(), project.getLogger(), SUCCESS_EXIT_VALUES);
+    }
+
+    private static List<String> runGit(File gitRoot, String command, Duration timeout, Logger logger) {
+        List<String> lines = new ArrayList<>();
+        runGit(gitRoot, command, lines::add, timeout, logger, SUCCESS_EXIT_VALUES);
+        return lines;
+    }
+
+    /**
+     * Runs the git command, which does not read the Gradle model, such that it can be called from any thread.
+     * @param gitRoot the directory to run git in
+     * @param command the git command line
+     * @param lineConsumer receives the lines of the output as they are read
+     * @param timeout the time git may run or null if there is no limit
+     * @param logger the logger to warn with the error output of git
+     * @param exitValues the exit values of git that are not failures
+     */
+    @SneakyThrows
+    private static void runGit(File gitRoot, String command, Consumer<String> lineConsumer, Duration timeout, Logger logger, int[] exitValues) {
         CollectingOutputStream stderr = new CollectingOutputStream();
         //We use Apache Commons Exec because we do not want to re-invent the wheel as ProcessBuilder hangs if the output or error buffer is full
+        //The lines are handed on as they are read, such that the output of big diffs are never collected as strings
         DefaultExecutor exec = new DefaultExecutor();
-        exec.setStreamHandler(new PumpStreamHandler(stdout, stderr));
+        exec.setStreamHandler(new PumpStreamHandler(new LoggingOutputStream(lineConsumer), stderr));
         exec.setWorkingDirectory(gitRoot);
-        exec.execute(CommandLine.parse(gitCommandProvider.getGitDiffCommand()));
+        exec.setExitValues(exitValues);
+        //Git can hang on things like a credential prompt, which would otherwise block the build until it is cancelled
+        ProcessTreeWatchdog watchdog = new ProcessTreeWatchdog(timeout);
+        exec.setWatchdog(watchdog);
+        try {
+            exec.execute(CommandLine.parse(command));
+        } catch (ExecuteException e) {
+            if (watchdog.killedProcess()) {
+                throw new IllegalStateException(String.format("Failed to run %s because it timed out after %s", command, watchdog.getTimeout()));
+            }
+            throw e;
+        }
 
         if (stderr.isNotEmpty()) {
             if (containsErrors(stderr)) {
-                throw new IllegalStateException(String.format("Failed to run git diff because of \n%s", stderr));
+                throw new IllegalStateException(String.format("Failed to run %s because of \n%s", command, stderr));
             } else {
-                if (project.getLogger().isWarnEnabled()) {
-                    project.getLogger().warn(stderr.toString());
+                if (logger.isWarnEnabled()) {
+                    logger.warn(stderr.toString());
                 }
             }
         }
+    }
 
-        if (stdout.isEmpty()) {
-            throw new IllegalStateException("Git diff returned no results this must be a mistake");
+    /**
+     * Stores the files as the snapshot the next run compares with, if the changed files were found using a snapshot.
+     * This should only be done after a successful run.
+     */
+    public void storeSnapshot() {
+        if (snapshotChangeDetector == null) {
+            return;
+        }
+        try {
+            snapshotChangeDetector.storeSnapshot();
+        } catch (IOException e) {
+            //The next run compares with the older snapshot instead, which only means more projects are run
+            project.getLogger().warn("Failed to store the snapshot of the files: {}", e.getMessage());
         }
-
-        //Create a single predicate from the ignored regexes such that we can use a simple filter
-        Predicate<String> filter = extension.getIgnoredRegex()
-                .getOrElse(Collections.emptySet())
-                .stream()
-                .map(Pattern::asMatchPredicate)
-                .reduce(Predicate::or)
-                .orElse(x -> false);
-
-        //Filter and return the list
-        return stdout.getLines().stream()
-                .filter(Predicate.not(filter))
-                .collect(Collectors.toList());
     }
 
-    private boolean containsErrors(CollectingOutputStream stderr) {
-        return stderr.getLines().stream().anyMatch(line -> line.startsWith("error:"));
+    private void storeMergeBaseCache() {
+        try {
+            mergeBaseCache.store();
+        } catch (IOException e) {
+            //The cache only makes later runs faster, so failing to store it should not fail the build
+            project.getLogger().warn("Failed to store the merge base cache: {}", e.getMessage());
+        }
     }
 
-    private boolean initAffectsAllProjects(List<String> gitFilteredChanges) {
-        //Create a single predicate from the affects all projects regexes such that we can use a simple filter
-        Predicate<String> filter = extension.getAffectsAllRegex()
-                .getOrElse(Collections.emptySet())
-                .stream()
+    private static Predicate<String> createFilter(Set<Pattern> patterns) {
+        //Create a single predicate from the regexes such that we can use a simple filter
+        return patterns.stream()
                 .map(Pattern::asMatchPredicate)
                 .reduce(Predicate::or)
                 .orElse(x -> false);
+    }
 
-        return gitFilteredChanges.stream()
-                .anyMatch(filter);
+    private static boolean containsErrors(CollectingOutputStream stderr) {
+        return stderr.getLines().stream().anyMatch(line -> line.startsWith("error:"));
     }
 
-    private List<File> initFilteredChangedFiles(List<String> gitFilteredChanges) {
-        File gitRoot = project.getGitRootDir();
-        if (gitRoot == null) {
-            throw new IllegalStateException("The project does not have a git root");
-        }
+    /**
+     * Gets the filtered changed paths
+     * @return the filtered changed paths relative to the git root
+     */
+    public ChangedPaths getChangedPaths() {
+        return filteredChanges;
+    }
 
-        return gitFilteredChanges.stream()
-                .map(s -> new File(gitRoot, s))
-                .collect(Collectors.toList());
+    /**
+     * Returns whether the path, relative to the git root, is ignored by the plugin configuration
+     * @param path the path relative to the git root using / as separator
+     * @return true if the path is ignored
+     */
+    public boolean isIgnored(String path) {
+        return ignoredFilter.test(path);
     }
 
     /**
-     * Gets the filtered changed files
-     * @return the filtered changed files
+     * Returns whether the path, relative to the git root, affects all projects by the plugin configuration
+     * @param path the path relative to the git root using / as separator
+     * @return true if a change to the path affects all projects
      */
-    public List<File> getChangedFiles() {
-        return filteredChanges;
+    public boolean isAffectingAllProjects(String path) {
+        return affectsAllFilter.test(path);
     }
 
     /**
@@ -123,18 +329,118 @@ public class ChangedFilesProvider {
         return affectsAllProjects;
     }
 
+    /**
+     * Gets the first changed path that caused all projects to be affected.
+     * @return the path relative to the git root or empty if all projects are not affected
+     */
+    public Optional<String> getAffectsAllPath() {
+        return Optional.ofNullable(affectsAllPath);
+    }
+
+    /**
+     * Gets the affects all regexes matching the path.
+     * @param path the path relative to the git root using / as separator
+     * @return the matching regexes
+     */
+    public List<String> getMatchingAffectsAllRegexes(String path) {
+        return extension.getAffectsAllRegex().getOrElse(Collections.emptySet()).stream()
+                .filter(pattern -> pattern.matcher(path).matches())
+                .map(Pattern::pattern)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Describes what was compared to find the changed files.
+     * @return the resolved range of compared commits or the snapshot
+     */
+    public String getComparison() {
+        if (snapshotChangeDetector != null) {
+            return snapshotChangeDetector.hasStoredSnapshot() ? "snapshot of the last successful run" : "no snapshot";
+        }
+        return resolvedRange.toGitArguments();
+    }
+
     /**
      * Prints debug information if it has been enabled
      * @param logger the logger to print information to
      */
     public void printDebug(Logger logger) {
         if (extension.shouldLog()) {
-            logger.lifecycle("Git diff command uses {}", gitCommandProvider.getGitDiffCommand());
+            if (snapshotChangeDetector != null) {
+                logger.lifecycle("Changed files found by comparing with the {}", getComparison());
+            } else {
+                if (usedGitProcess) {
+                    logger.lifecycle("Git diff command uses {}", gitCommandProvider.getGitDiffCommand(resolvedRange));
+                } else {
+                    logger.lifecycle("Git diff in process uses {}", resolvedRange.toGitArguments());
+                }
+                logger.lifecycle("Resolved from {}", gitCommandProvider.getGitDiffRange().toGitArguments());
+            }
+            if (!resolvedNestedRoots.isEmpty()) {
+                logger.lifecycle("Changed nested repositories resolved: {}", resolvedNestedRoots.keySet());
+            }
             logger.lifecycle("All projects affected? {}", isAllProjectsAffected());
             logger.lifecycle("Changed files:");
-            getChangedFiles()
-                    .forEach(file -> logger.lifecycle(file.toString()));
+            getChangedPaths()
+                    .forEach(logger::lifecycle);
             logger.lifecycle("");
         }
     }
+
+    /**
+     * Filters the changed paths as they are found, such that only the paths that are not ignored are stored.
+     */
+    private class FilteringCollector implements Consumer<String> {
+        private final ChangedPaths.Builder paths = ChangedPaths.builder();
+        private final PathFilterEvent filterEvent = new PathFilterEvent();
+        //The regexes are only timed when recording, as reading the clock for every path is not free
+        private final boolean timed = filterEvent.isEnabled();
+        private int count;
+        private int ignored;
+        private boolean affectsAll;
+        private String affectsAllPath;
+        private final List<String> changedNestedRoots = new ArrayList<>();
+
+        private FilteringCollector() {
+            filterEvent.begin();
+        }
+
+        @Override
+        public void accept(String path) {
+            if (nestedRoots.contains(path)) {
+                changedNestedRoots.add(path);
+            } else {
+                filter(path);
+            }
+        }
+
+        private void filter(String path) {
+            count++;
+            long start = timed ? System.nanoTime() : 0;
+            boolean isIgnored = ignoredFilter.test(path);
+            boolean isAffectingAll = !isIgnored && !affectsAll && affectsAllFilter.test(path);
+            if (timed) {
+                filterEvent.filterTime += System.nanoTime() - start;
+            }
+            if (isIgnored) {
+                ignored++;
+            } else {
+                paths.add(path);
+                if (isAffectingAll) {
+                    affectsAll = true;
+                    affectsAllPath = path;
+                }
+            }
+        }
+
+        private void commitFilterEvent() {
+            filterEvent.end();
+            if (filterEvent.shouldCommit()) {
+                filterEvent.paths = count;
+                filterEvent.ignoredPaths = ignored;
+                filterEvent.affectsAll = affectsAll;
+                filterEvent.commit();
+            }
+        }
+    }
 }
@@ -0,0 +1,16 @@
+package io.github.crimix.changedprojectstask.providers;
+
+/**
+ * The kinds of edges between a project and a project that depends on it
+ */
+public enum DependentEdgeKind {
+    /**
+     * The dependent is affected by the change and so are the projects depending on the dependent
+     */
+    TRANSITIVE,
+
+    /**
+     * Only the dependent itself is affected by the change
+     */
+    DIRECT
+}
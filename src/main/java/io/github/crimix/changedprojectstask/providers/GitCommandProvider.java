@@ -2,6 +2,7 @@ package io.github.crimix.changedprojectstask.providers;
 
 import io.github.crimix.changedprojectstask.extensions.Extensions;
 import io.github.crimix.changedprojectstask.utils.GitDiffMode;
+import io.github.crimix.changedprojectstask.utils.GitDiffRange;
 import lombok.experimental.ExtensionMethod;
 import org.gradle.api.Project;
 import org.gradle.internal.impldep.org.jetbrains.annotations.VisibleForTesting;
@@ -19,7 +20,7 @@ public class GitCommandProvider {
 
     // The default if no commit ids have been specified
     private static final String HEAD = "HEAD";
-    private static final String BASE_DIFF_COMMAND = "git diff --name-only";
+    private static final String BASE_DIFF_COMMAND = "git diff --name-only --no-renames";
 
     private final Project project;
 
@@ -32,11 +33,28 @@ public class GitCommandProvider {
      * @return the git diff command
      */
     public String getGitDiffCommand() {
+        return getGitDiffCommand(getGitDiffRange());
+    }
+
+    /**
+     * Constructs the git diff command for the range.
+     * @param range the revisions to compare
+     * @return the git diff command
+     */
+    public String getGitDiffCommand(GitDiffRange range) {
+        return String.format("%s %s", BASE_DIFF_COMMAND, range.toGitArguments());
+    }
+
+    /**
+     * Constructs the revisions that should be compared to find the changed files.
+     * @return the revisions to compare
+     */
+    public GitDiffRange getGitDiffRange() {
         GitDiffMode mode = project.getCommitCompareMode();
         Optional<String> currentCommitId = project.getCommitId();
         Optional<String> previousCommitId = project.getPreviousCommitId();
 
-        return evaluate(mode, currentCommitId, previousCommitId);
+        return evaluateRange(mode, currentCommitId, previousCommitId);
     }
 
     /**
@@ -48,6 +66,10 @@ public class GitCommandProvider {
      */
     @VisibleForTesting
     public String evaluate(GitDiffMode mode, Optional<String> currentCommitId, Optional<String> previousCommitId) {
+        return String.format("%s %s", BASE_DIFF_COMMAND, evaluateRange(mode, currentCommitId, previousCommitId).toGitArguments());
+    }
+
+    private GitDiffRange evaluateRange(GitDiffMode mode, Optional<String> currentCommitId, Optional<String> previousCommitId) {
         switch (mode) {
             case COMMIT:
                 return getCommitDiff(currentCommitId, previousCommitId);
@@ -62,44 +84,44 @@ public class GitCommandProvider {
         }
     }
 
-    private String getCommitDiff(Optional<String> currentCommitId, Optional<String> previousCommitId) {
+    private GitDiffRange getCommitDiff(Optional<String> currentCommitId, Optional<String> previousCommitId) {
         //If only currentCommitId has been specified then we assume that it is the diff of that specific commit
         if (currentCommitId.isPresent() && previousCommitId.isPresent()) {
-            return String.format("%s %s~ %s", BASE_DIFF_COMMAND, previousCommitId.get(), currentCommitId.get());
+            return new GitDiffRange(previousCommitId.get() + "~", currentCommitId.get(), GitDiffRange.COMMITS);
         } else if (currentCommitId.isPresent()) {
-            return String.format("%s %s~ %s", BASE_DIFF_COMMAND, currentCommitId.get(), currentCommitId.get());
+            return new GitDiffRange(currentCommitId.get() + "~", currentCommitId.get(), GitDiffRange.COMMITS);
         } else if (previousCommitId.isPresent()) {
             throw new IllegalStateException(String.format("[%s] When using %s then %s must also be specified", GitDiffMode.COMMIT.name(), PREVIOUS_COMMIT, CURRENT_COMMIT));
         } else {
-            return String.format("%s %s~ %s", BASE_DIFF_COMMAND, HEAD, HEAD);
+            return new GitDiffRange(HEAD + "~", HEAD, GitDiffRange.COMMITS);
         }
     }
 
-    private String getBranchDiff(Optional<String> currentCommitId, Optional<String> previousCommitId) {
+    private GitDiffRange getBranchDiff(Optional<String> currentCommitId, Optional<String> previousCommitId) {
         if (currentCommitId.isPresent() && previousCommitId.isPresent()) {
-            return String.format("%s %s %s", BASE_DIFF_COMMAND, previousCommitId.get(), currentCommitId.get());
+            return new GitDiffRange(previousCommitId.get(), currentCommitId.get(), GitDiffRange.COMMITS);
         } else if (previousCommitId.isPresent()) {
-            return String.format("%s %s %s", BASE_DIFF_COMMAND, previousCommitId.get(), HEAD);
+            return new GitDiffRange(previousCommitId.get(), HEAD, GitDiffRange.COMMITS);
         } else {
             throw new IllegalStateException(String.format("[%s] %s must always be specified", GitDiffMode.BRANCH.name(), PREVIOUS_COMMIT));
         }
     }
 
-    private String getBranchTwoDotDiff(Optional<String> currentCommitId, Optional<String> previousCommitId) {
+    private GitDiffRange getBranchTwoDotDiff(Optional<String> currentCommitId, Optional<String> previousCommitId) {
         if (currentCommitId.isPresent() && previousCommitId.isPresent()) {
-            return String.format("%s %s..%s", BASE_DIFF_COMMAND, previousCommitId.get(), currentCommitId.get());
+            return new GitDiffRange(previousCommitId.get(), currentCommitId.get(), GitDiffRange.TWO_DOT);
         } else if (previousCommitId.isPresent()) {
-            return String.format("%s %s..", BASE_DIFF_COMMAND, previousCommitId.get());
+            return new GitDiffRange(previousCommitId.get(), null, GitDiffRange.TWO_DOT);
         } else {
             throw new IllegalStateException(String.format("[%s] %s must always be specified", GitDiffMode.BRANCH_TWO_DOT.name(), PREVIOUS_COMMIT));
         }
     }
 
-    private String getBranchThreeDotDiff(Optional<String> currentCommitId, Optional<String> previousCommitId) {
+    private GitDiffRange getBranchThreeDotDiff(Optional<String> currentCommitId, Optional<String> previousCommitId) {
         if (currentCommitId.isPresent() && previousCommitId.isPresent()) {
-            return String.format("%s %s...%s", BASE_DIFF_COMMAND, previousCommitId.get(), currentCommitId.get());
+            return new GitDiffRange(previousCommitId.get(), currentCommitId.get(), GitDiffRange.THREE_DOT);
         } else if (previousCommitId.isPresent()) {
-            return String.format("%s %s...", BASE_DIFF_COMMAND, previousCommitId.get());
+            return new GitDiffRange(previousCommitId.get(), null, GitDiffRange.THREE_DOT);
         } else {
             throw new IllegalStateException(String.format("[%s] %s must always be specified", GitDiffMode.BRANCH_THREE_DOT.name(), PREVIOUS_COMMIT));
         }
@@ -0,0 +1,219 @@
+package io.github.crimix.changedprojectstask.providers;
+
+import io.github.crimix.changedprojectstask.extensions.Extensions;
+import lombok.Data;
+import lombok.experimental.ExtensionMethod;
+import org.gradle.api.Project;
+import org.gradle.api.initialization.IncludedBuild;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * A project of a build included using includeBuild, which projects of this build can depend on through dependency substitution.
+ * The projects of an included build cannot be accessed from this build, so they are found from the build scripts in its directory,
+ * where the module name is the name of the project directory, which is what Gradle substitutes by default.
+ * The group is only known when it is declared as a plain string, otherwise the module is matched by its name alone.
+ * Likewise the dependencies between the projects of an included build are only known when declared using project(':path').
+ * The getters are auto-generated by Lombok
+ */
+@Data
+@ExtensionMethod(Extensions.class)
+public class IncludedBuildModule {
+
+    private static final List<String> BUILD_FILES = List.of("build.gradle", "build.gradle.kts");
+    private static final List<String> SETTINGS_FILES = List.of("settings.gradle", "settings.gradle.kts");
+    //Directories that cannot contain projects, so they are not scanned
+    private static final Set<String> SKIPPED_DIRECTORIES = Set.of("build", "src", "buildSrc", "node_modules");
+    private static final String GRADLE_PROPERTIES = "gradle.properties";
+    //Matches group = 'x', group = "x" and group 'x', but not values built from other properties
+    //Matches project(':core'), project(":core") and project(path: ':core')
+    private static final Pattern PROJECT_DEPENDENCY = Pattern.compile("project\\s*\\(\\s*(?:path\\s*[:=]\\s*)?[\"'](:[^\"'$]*)[\"']");
+    private static final Pattern GROUP_DECLARATION = Pattern.compile("^\\s*(?:project\\.)?group\\s*=?\\s*[\"']([^\"'$]+)[\"']\\s*$", Pattern.MULTILINE);
+
+    /**
+     * The name of the included build
+     */
+    private final String buildName;
+
+    /**
+     * The module name which the external dependencies substituted by the project uses
+     */
+    private final String name;
+
+    /**
+     * The group declared by the build scripts or the gradle.properties of the included build, or null if it could not be found
+     */
+    private final String group;
+
+    /**
+     * The directory of the project relative to the git root, ending with a /
+     */
+    private final String directory;
+
+    /**
+     * The path of the project within the included build, like :core
+     */
+    private final String projectPath;
+
+    /**
+     * The paths of the projects of the same included build the project depends on
+     */
+    private final Set<String> projectDependencies;
+
+    /**
+     * The conventional source directories of the non-propagating source sets relative to the git root, ending with a /
+     */
+    private final List<String> nonPropagatingDirs;
+
+    /**
+     * Finds the projects of the builds included in the build of the project, which are inside the git root.
+     * Included builds outside the git root cannot contain any of the changed paths, so they are left out.
+     * @param project the project
+     * @param gitRootPath the canonical path of the git root
+     * @param nonPropagatingSourceSets the names of the source sets which changes cannot be observed by dependents
+     * @return the projects of the included builds
+     */
+    public static List<IncludedBuildModule> findModules(Project project, Path gitRootPath, Set<String> nonPropagatingSourceSets) {
+        List<IncludedBuildModule> result = new ArrayList<>();
+        for (IncludedBuild build : project.getGradle().getIncludedBuilds()) {
+            Path buildDir = build.getProjectDir().getCanonicalFilePath();
+            if (buildDir.startsWith(gitRootPath) && !buildDir.equals(gitRootPath)) {
+                findProjectDirectories(buildDir).stream()
+                        .map(dir -> {
+                            String name = dir.equals(buildDir) ? build.getName() : dir.getFileName().toString();
+                            String directory = ProjectLookupIndex.toGitPath(gitRootPath, dir) + "/";
+                            List<String> nonPropagatingDirs = nonPropagatingSourceSets.stream()
+                                    .map(sourceSet -> directory + "src/" + sourceSet + "/")
+                                    .collect(Collectors.toList());
+                            //Gradle places a project in the directory matching its path unless the settings says otherwise
+                            String projectPath = ":" + ProjectLookupIndex.toGitPath(buildDir, dir).replace('/', ':');
+                            return new IncludedBuildModule(build.getName(), name, findGroup(buildDir, dir), directory,
+                                    dir.equals(buildDir) ? ":" : projectPath, findProjectDependencies(dir), nonPropagatingDirs);
+                        })
+                        .forEach(result::add);
+            }
+        }
+        return result;
+    }
+
+    private static Collection<Path> findProjectDirectories(Path buildDir) {
+        List<Path> result = new ArrayList<>();
+        try {
+            Files.walkFileTree(buildDir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    String name = dir.getFileName().toString();
+                    boolean nestedBuild = !dir.equals(buildDir) && SETTINGS_FILES.stream().anyMatch(file -> Files.isRegularFile(dir.resolve(file)));
+                    if (!dir.equals(buildDir) && (name.startsWith(".") || SKIPPED_DIRECTORIES.contains(name) || nestedBuild)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if (BUILD_FILES.stream().anyMatch(file -> Files.isRegularFile(dir.resolve(file)))) {
+                        result.add(dir);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return result;
+    }
+
+    private static String findGroup(Path buildDir, Path projectDir) {
+        //The group is usually set by the project itself or for all projects by the build script or the gradle.properties of the build
+        String group = findDeclaredGroup(projectDir);
+        if (group == null && !projectDir.equals(buildDir)) {
+            group = findDeclaredGroup(buildDir);
+        }
+        if (group == null) {
+            group = findPropertiesGroup(buildDir);
+        }
+        return group;
+    }
+
+    private static String findDeclaredGroup(Path dir) {
+        for (String buildFile : BUILD_FILES) {
+            Path file = dir.resolve(buildFile);
+            if (Files.isRegularFile(file)) {
+                try {
+                    Matcher matcher = GROUP_DECLARATION.matcher(Files.readString(file, StandardCharsets.UTF_8));
+                    if (matcher.find()) {
+                        return matcher.group(1);
+                    }
+                } catch (IOException ignored) {
+                    //Without the group the module is matched by its name only
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Set<String> findProjectDependencies(Path dir) {
+        Set<String> result = new HashSet<>();
+        for (String buildFile : BUILD_FILES) {
+            Path file = dir.resolve(buildFile);
+            if (Files.isRegularFile(file)) {
+                try {
+                    Matcher matcher = PROJECT_DEPENDENCY.matcher(Files.readString(file, StandardCharsets.UTF_8));
+                    while (matcher.find()) {
+                        result.add(matcher.group(1));
+                    }
+                } catch (IOException ignored) {
+                    //Without the dependencies the projects of the build fall back to all the consumers of the build
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String findPropertiesGroup(Path buildDir) {
+        Path file = buildDir.resolve(GRADLE_PROPERTIES);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+        String group = properties.getProperty("group");
+        return group == null || group.isBlank() ? null : group.trim();
+    }
+
+    /**
+     * Returns whether an external dependency is substituted by the project, which is when its name matches and its group matches if the group is known.
+     * @param dependencyGroup the group of the dependency, which can be null
+     * @param dependencyName the name of the dependency
+     * @return true if the dependency refers to the project
+     */
+    public boolean isSubstituting(String dependencyGroup, String dependencyName) {
+        return name.equals(dependencyName) && (group == null || group.equals(dependencyGroup));
+    }
+
+    /**
+     * Returns whether a change to the path can be observed by the projects depending on the module.
+     * @param path the path relative to the git root using / as separator inside the project directory
+     * @return true if the path is not inside the source directories of the non-propagating source sets
+     */
+    public boolean isPropagatingChange(String path) {
+        return nonPropagatingDirs.stream().noneMatch(path::startsWith);
+    }
+}
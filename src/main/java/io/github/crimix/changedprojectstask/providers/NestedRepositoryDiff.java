@@ -0,0 +1,204 @@
+package io.github.crimix.changedprojectstask.providers;
+
+import io.github.crimix.changedprojectstask.git.InProcessGitDiff;
+import io.github.crimix.changedprojectstask.git.MergeBaseCache;
+import io.github.crimix.changedprojectstask.utils.GitDiffRange;
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves the changed gitlinks of nested git repositories, like submodules, into the files that changed inside them.
+ * git diff only lists a changed submodule as the path of the submodule, which would only affect the project owning that directory,
+ * so instead the commits the gitlink pointed to are compared in the nested repository.
+ * Each nested repository is a separate repository, so they are compared at the same time.
+ * Every repository read in process is closed once it has been compared, such that its pack files are unmapped.
+ */
+public class NestedRepositoryDiff {
+
+    private static final String HEAD = "HEAD";
+    private static final String GIT_MODULES = ".gitmodules";
+    private static final Pattern SUBMODULE_PATH = Pattern.compile("^\\s*path\\s*=\\s*(.+?)\\s*$", Pattern.MULTILINE);
+
+    private final GitCommandProvider gitCommandProvider;
+    private final BiFunction<File, String, List<String>> gitRunner;
+    private final MergeBaseCache mergeBaseCache;
+    private final boolean useGitProcess;
+    private final Logger logger;
+
+    /**
+     * Creates the nested repository diff.
+     * @param gitCommandProvider creates the git diff commands
+     * @param gitRunner runs a git command in the git root given and returns the lines of its output, which is called from other threads so it must not read the Gradle model
+     * @param mergeBaseCache the cache used by the in process diff
+     * @param useGitProcess whether git should always be run as a process
+     * @param logger the logger to warn about nested repositories that could not be compared
+     */
+    public NestedRepositoryDiff(GitCommandProvider gitCommandProvider, BiFunction<File, String, List<String>> gitRunner,
+                                MergeBaseCache mergeBaseCache, boolean useGitProcess, Logger logger) {
+        this.gitCommandProvider = gitCommandProvider;
+        this.gitRunner = gitRunner;
+        this.mergeBaseCache = mergeBaseCache;
+        this.useGitProcess = useGitProcess;
+        this.logger = logger;
+    }
+
+    /**
+     * Finds the nested repositories declared in the .gitmodules of the git root, which are checked out.
+     * Submodules that are not checked out cannot be compared, so they are left as a single changed path.
+     * @param gitRoot the git root
+     * @return the paths of the nested repositories relative to the git root
+     */
+    public static Set<String> findNestedRoots(File gitRoot) {
+        File gitModules = new File(gitRoot, GIT_MODULES);
+        if (!gitModules.isFile()) {
+            return Collections.emptySet();
+        }
+        String content;
+        try {
+            content = Files.readString(gitModules.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return Collections.emptySet();
+        }
+        Matcher matcher = SUBMODULE_PATH.matcher(content);
+        Set<String> result = new HashSet<>();
+        while (matcher.find()) {
+            String path = matcher.group(1);
+            if (new File(new File(gitRoot, path), ".git").exists()) {
+                result.add(path);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the changed files inside the changed nested repositories.
+     * @param gitRoot the git root containing the nested repositories
+     * @param range the compared revisions of the git root
+     * @param changedRoots the paths of the changed nested repositories relative to the git root
+     * @return the changed paths relative to the git root of each nested repository,
+     * which is the path of the nested repository itself if the files inside it could not be found
+     */
+    public Map<String, List<String>> diff(File gitRoot, GitDiffRange range, List<String> changedRoots) {
+        //The gitlinks are all looked up before the nested repositories are compared, such that the git root is only opened once and only read from one thread
+        Map<String, Optional<GitDiffRange>> nestedRanges = new LinkedHashMap<>();
+        try (InProcessGitDiff diff = openInProcessDiff(gitRoot)) {
+            for (String path : changedRoots) {
+                nestedRanges.put(path, findNestedRange(diff, gitRoot, range, path));
+            }
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(changedRoots.size(), Runtime.getRuntime().availableProcessors()), runnable -> {
+            Thread thread = new Thread(runnable, "changed-projects-git-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Map<String, CompletableFuture<List<String>>> futures = new LinkedHashMap<>();
+            nestedRanges.forEach((path, nestedRange) -> futures.put(path, CompletableFuture.supplyAsync(() -> diffNestedRoot(gitRoot, path, nestedRange), executor)));
+            Map<String, List<String>> result = new LinkedHashMap<>();
+            futures.forEach((path, future) -> result.put(path, future.join()));
+            return result;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private Optional<GitDiffRange> findNestedRange(InProcessGitDiff diff, File gitRoot, GitDiffRange range, String path) {
+        Optional<String> previous = findGitlink(diff, gitRoot, range.getPrevious(), path);
+        Optional<String> current = findGitlink(diff, gitRoot, range.getCurrent() == null ? HEAD : range.getCurrent(), path);
+        if (previous.isEmpty() || current.isEmpty()) {
+            //The nested repository was added or removed, so there is nothing to compare it with
+            return Optional.empty();
+        }
+        return Optional.of(new GitDiffRange(previous.get(), current.get(), GitDiffRange.COMMITS));
+    }
+
+    private List<String> diffNestedRoot(File gitRoot, String path, Optional<GitDiffRange> nestedRange) {
+        if (nestedRange.isEmpty()) {
+            return Collections.singletonList(path);
+        }
+        File nestedRoot = new File(gitRoot, path);
+        try (InProcessGitDiff diff = openInProcessDiff(nestedRoot)) {
+            List<String> changedFiles = getChangedFiles(diff, nestedRoot, nestedRange.get());
+            if (changedFiles.isEmpty()) {
+                return Collections.singletonList(path);
+            }
+
+            //Nested repositories can themselves contain nested repositories, which are compared one after the other using the already opened repository
+            Set<String> nestedRoots = findNestedRoots(nestedRoot);
+            List<String> result = new ArrayList<>();
+            for (String file : changedFiles) {
+                if (nestedRoots.contains(file)) {
+                    diffNestedRoot(nestedRoot, file, findNestedRange(diff, nestedRoot, nestedRange.get(), file)).forEach(nested -> result.add(path + "/" + nested));
+                } else {
+                    result.add(path + "/" + file);
+                }
+            }
+            return result;
+        } catch (Exception e) {
+            //Commits missing in the nested repository, like in a shallow submodule, only means we cannot tell which of its files changed
+            logger.warn("Could not find the changed files of the nested repository {}, so all of it is treated as changed: {}", path, e.getMessage());
+            return Collections.singletonList(path);
+        }
+    }
+
+    private InProcessGitDiff openInProcessDiff(File gitRoot) {
+        if (useGitProcess) {
+            return null;
+        }
+        try {
+            return new InProcessGitDiff(gitRoot, mergeBaseCache);
+        } catch (IOException e) {
+            //A repository the in process diff does not support is left for git itself to handle
+            return null;
+        }
+    }
+
+    private Optional<String> findGitlink(InProcessGitDiff diff, File gitRoot, String revision, String path) {
+        if (diff != null) {
+            try {
+                return diff.findGitlink(revision, path);
+            } catch (IOException ignored) {
+                //Anything the in process diff does not support is left for git itself to handle
+            }
+        }
+        try {
+            List<String> result = gitRunner.apply(gitRoot, String.format("git rev-parse --verify --quiet %s:%s", revision, path));
+            return result.stream().findFirst();
+        } catch (Exception e) {
+            //git rev-parse --verify fails when there is nothing at the path
+            return Optional.empty();
+        }
+    }
+
+    private List<String> getChangedFiles(InProcessGitDiff diff, File nestedRoot, GitDiffRange range) {
+        if (diff != null) {
+            try {
+                return diff.getChangedFiles(range);
+            } catch (IOException ignored) {
+                //Anything the in process diff does not support is left for git itself to handle
+            }
+        }
+        return gitRunner.apply(nestedRoot, gitCommandProvider.getGitDiffCommand(range));
+    }
+}
@@ -1,24 +1,31 @@
 package io.github.crimix.changedprojectstask.providers;
 
 import io.github.crimix.changedprojectstask.configuration.ChangedProjectsConfiguration;
+import io.github.crimix.changedprojectstask.events.DependentsTraversalEvent;
 import io.github.crimix.changedprojectstask.extensions.Extensions;
 import io.github.crimix.changedprojectstask.utils.Pair;
 import lombok.experimental.ExtensionMethod;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.artifacts.ExternalModuleDependency;
 import org.gradle.api.artifacts.ProjectDependency;
+import org.gradle.api.file.SourceDirectorySet;
 import org.gradle.api.logging.Logger;
+import org.gradle.api.tasks.SourceSet;
+import org.gradle.api.tasks.SourceSetContainer;
 
-import java.io.File;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
-import java.util.function.Predicate;
-import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @ExtensionMethod(Extensions.class)
@@ -26,99 +33,250 @@ public class ProjectDependencyProvider {
 
     private final Project project;
     private final ChangedProjectsConfiguration extension;
-    private final Map<Project, Set<Project>> projectDependentsMap;
+    private final Map<Project, Map<Project, DependentEdgeKind>> projectDependentsMap;
+    //The source directories relative to the git root ending with a /, such that a simple prefix check can be used
+    private final Map<Project, List<String>> nonPropagatingSourceDirs;
+    //The projects of this build depending on each project of an included build through dependency substitution
+    private final Map<IncludedBuildModule, Map<Project, DependentEdgeKind>> includedModuleConsumers;
+    private final ProjectLookupIndex projectLookupIndex;
 
     public ProjectDependencyProvider(Project project, ChangedProjectsConfiguration extension) {
         this.project = project;
         this.extension = extension;
         this.projectDependentsMap = initProjectDependents();
+        this.nonPropagatingSourceDirs = initNonPropagatingSourceDirs();
+        this.includedModuleConsumers = initIncludedModuleConsumers();
+        this.projectLookupIndex = new ProjectLookupIndex(project, extension, includedModuleConsumers);
     }
 
-    private Map<Project, Set<Project>> initProjectDependents() {
+    private Path getGitRootPath() {
+        //Without a git root the changed paths are found from the snapshot, relative to the root project directory
+        return project.getWorkspaceRootDir().getCanonicalFilePath();
+    }
+
+    private Map<Project, List<String>> initNonPropagatingSourceDirs() {
+        //We look up the source directories once, as the same projects are checked for every changed file
+        Set<String> sourceSetNames = extension.getNonPropagatingSourceSets().getOrElse(Collections.emptySet());
+        Path gitRootPath = getGitRootPath();
+        return project.getAllprojects().stream()
+                .map(p -> new Pair<>(p, getSourceDirs(p, sourceSetNames, gitRootPath)))
+                .filter(pair -> !pair.getValue().isEmpty())
+                .collect(Collectors.toMap(Pair::getKey, Pair::getValue));
+    }
+
+    private List<String> getSourceDirs(Project project, Set<String> sourceSetNames, Path gitRootPath) {
+        SourceSetContainer sourceSets = project.getExtensions().findByType(SourceSetContainer.class);
+        if (sourceSets == null) {
+            return Collections.emptyList();
+        }
+        return sourceSets.stream()
+                .filter(sourceSet -> sourceSetNames.contains(sourceSet.getName()))
+                .map(SourceSet::getAllSource)
+                .map(SourceDirectorySet::getSrcDirs)
+                .flatMap(Set::stream)
+                .map(Extensions::getCanonicalFilePath)
+                .filter(path -> path.startsWith(gitRootPath))
+                .map(path -> ProjectLookupIndex.toGitPath(gitRootPath, path) + "/")
+                .collect(Collectors.toList());
+    }
+
+    private Map<Project, Map<Project, DependentEdgeKind>> initProjectDependents() {
         //We create a lookup map of projects and the projects that depends on that project once
         //This is to speed up the evaluating dependent changed projects
-        //The key of the map is a project that is a direct dependency for the value set
+        //The key of the map is a project that is a direct dependency for the keys of the value map
+        //If a project depends on another through multiple configurations, the transitive edge wins
         return project.getSubprojects().stream()
                 .map(this::getProjectDependencies)
                 .flatMap(Collection::stream)
-                .collect(Collectors.groupingBy(Pair::getKey, Collectors.mapping(Pair::getValue, Collectors.toSet())));
+                .collect(Collectors.groupingBy(Pair::getKey,
+                        Collectors.toMap(pair -> pair.getValue().getKey(), pair -> pair.getValue().getValue(), this::mergeEdgeKinds)));
     }
 
-    private Set<Pair<Project, Project>> getProjectDependencies(Project subproject) {
-        //We use a pair, because we want the project that is a dependency together with the project it is a dependency for
+    private Set<Pair<Project, Pair<Project, DependentEdgeKind>>> getProjectDependencies(Project subproject) {
+        //We use a pair, because we want the project that is a dependency together with the project it is a dependency for and the kind of edge
         return subproject.getConfigurations().stream()
-                .map(Configuration::getDependencies)
-                .map(dependencySet -> dependencySet.withType(ProjectDependency.class))
-                .flatMap(Set::stream)
-                .map(ProjectDependency::getDependencyProject)
-                .map(p -> new Pair<>(p, subproject))
+                .map(configuration -> new Pair<>(configuration, getEdgeKind(configuration)))
+                .filter(pair -> pair.getValue() != null)
+                .flatMap(pair -> pair.getKey().getDependencies().withType(ProjectDependency.class).stream()
+                        .map(ProjectDependency::getDependencyProject)
+                        .map(p -> new Pair<>(p, new Pair<>(subproject, pair.getValue()))))
                 .collect(Collectors.toSet());
     }
 
-    public Project getChangedProject(File file) {
-        Path filePath = file.getCanonicalFilePath();
-        if (!filePath.startsWith(project.getRootProject().getCanonicalProjectPath())) {
-            return null; //We return null here as there is no need to try and find which project it belongs to
+    private Map<IncludedBuildModule, Map<Project, DependentEdgeKind>> initIncludedModuleConsumers() {
+        //Dependency substitution only happens when the configurations are resolved, which is too costly to do for every configuration,
+        //so instead an external dependency is matched with the projects of the included builds by its group and module name, like Gradle does by default
+        Set<String> sourceSetNames = extension.getNonPropagatingSourceSets().getOrElse(Collections.emptySet());
+        List<IncludedBuildModule> modules = IncludedBuildModule.findModules(project, getGitRootPath(), sourceSetNames);
+        Map<String, List<IncludedBuildModule>> modulesByName = modules.stream()
+                .collect(Collectors.groupingBy(IncludedBuildModule::getName));
+        if (modulesByName.isEmpty()) {
+            return Collections.emptyMap();
         }
+        //Unlike project dependencies, the root project is also checked, as a single project build can also include other builds
+        Map<IncludedBuildModule, Map<Project, DependentEdgeKind>> directConsumers = project.getAllprojects().stream()
+                .map(p -> getIncludedModuleDependencies(p, modulesByName))
+                .flatMap(Collection::stream)
+                .collect(Collectors.groupingBy(Pair::getKey,
+                        Collectors.toMap(pair -> pair.getValue().getKey(), pair -> pair.getValue().getValue(), this::mergeEdgeKinds)));
 
-        //We find all projects which paths match the start of the files' path.
-        //Then we take the project which has the most overlap with the beginning of the file path
-        //Else we just use the root project as a fallback
-        Project result = project.getAllprojects().stream()
-                .filter(doesFilePathStartWithProjectDirPath(file))
-                .max(Comparator.comparingInt(Extensions::getCanonicalProjectPathStringLength))
-                .orElseGet(getFallback(file));
+        Map<IncludedBuildModule, Map<Project, DependentEdgeKind>> result = new HashMap<>();
+        modules.stream()
+                .collect(Collectors.groupingBy(IncludedBuildModule::getBuildName))
+                .values()
+                .forEach(buildModules -> result.putAll(getIncludedBuildConsumers(buildModules, directConsumers)));
+        return result;
+    }
 
-        if (extension.shouldLog()) {
-            project.getLogger().lifecycle("File {} belongs to {}", file, result);
+    private Map<IncludedBuildModule, Map<Project, DependentEdgeKind>> getIncludedBuildConsumers(List<IncludedBuildModule> buildModules,
+                                                                                             Map<IncludedBuildModule, Map<Project, DependentEdgeKind>> directConsumers) {
+        //Included builds nothing in this build depends on, like plugin builds, are left out, such that their changes are handled like any other file
+        Map<Project, DependentEdgeKind> buildConsumers = new HashMap<>();
+        buildModules.forEach(module -> directConsumers.getOrDefault(module, Collections.emptyMap()).forEach((p, kind) -> buildConsumers.merge(p, kind, this::mergeEdgeKinds)));
+        if (buildConsumers.isEmpty()) {
+            return Collections.emptyMap();
         }
 
+        //A project of the included build is consumed through the projects of the same build depending on it, like :api depending on :core
+        Map<String, List<IncludedBuildModule>> dependentsByPath = new HashMap<>();
+        buildModules.forEach(module -> module.getProjectDependencies().forEach(path -> dependentsByPath.computeIfAbsent(path, k -> new ArrayList<>()).add(module)));
+        Map<IncludedBuildModule, Map<Project, DependentEdgeKind>> result = new HashMap<>();
+        for (IncludedBuildModule module : buildModules) {
+            Map<Project, DependentEdgeKind> consumers = new HashMap<>();
+            Set<IncludedBuildModule> visited = new HashSet<>();
+            Deque<IncludedBuildModule> modulesToVisit = new ArrayDeque<>(Collections.singleton(module));
+            while (!modulesToVisit.isEmpty()) {
+                IncludedBuildModule current = modulesToVisit.poll();
+                if (visited.add(current)) {
+                    directConsumers.getOrDefault(current, Collections.emptyMap()).forEach((p, kind) -> consumers.merge(p, kind, this::mergeEdgeKinds));
+                    modulesToVisit.addAll(dependentsByPath.getOrDefault(current.getProjectPath(), Collections.emptyList()));
+                }
+            }
+            //The dependencies inside the build can be declared in ways we cannot read, so a project nothing is found to depend on
+            //is seen as consumed by everything consuming the build, rather than risk not running the projects that depend on it
+            result.put(module, consumers.isEmpty() ? buildConsumers : consumers);
+        }
         return result;
     }
 
-    private Predicate<Project> doesFilePathStartWithProjectDirPath(File file) {
-        return subproject -> {
-            Path subprojectPath = subproject.getCanonicalProjectPath();
-            Path filePath = file.getCanonicalFilePath();
-            return filePath.startsWith(subprojectPath);
-        };
+    private Set<Pair<IncludedBuildModule, Pair<Project, DependentEdgeKind>>> getIncludedModuleDependencies(Project consumer, Map<String, List<IncludedBuildModule>> modulesByName) {
+        return consumer.getConfigurations().stream()
+                .map(configuration -> new Pair<>(configuration, getEdgeKind(configuration)))
+                .filter(pair -> pair.getValue() != null)
+                .flatMap(pair -> pair.getKey().getDependencies().withType(ExternalModuleDependency.class).stream()
+                        .flatMap(dependency -> modulesByName.getOrDefault(dependency.getName(), Collections.emptyList()).stream()
+                                .filter(module -> module.isSubstituting(dependency.getGroup(), dependency.getName())))
+                        .map(module -> new Pair<>(module, new Pair<>(consumer, pair.getValue()))))
+                .collect(Collectors.toSet());
     }
 
-    private Supplier<Project> getFallback(File file) {
-        return () -> {
-            if (extension.shouldLog()) {
-                project.getLogger().lifecycle("USING FALLBACK for file {}", file);
-            }
-            return project.getRootProject();
-        };
+    private DependentEdgeKind getEdgeKind(Configuration configuration) {
+        Set<String> transitiveConfigurations = extension.getTransitiveConfigurations().getOrElse(Collections.emptySet());
+        Set<String> directConfigurations = extension.getDirectConfigurations().getOrElse(Collections.emptySet());
+        if (directConfigurations.contains(configuration.getName())) {
+            return DependentEdgeKind.DIRECT;
+        } else if (transitiveConfigurations.isEmpty() || transitiveConfigurations.contains(configuration.getName())) {
+            return DependentEdgeKind.TRANSITIVE;
+        } else {
+            return null; //The user has chosen which configurations to use, and this is not one of them
+        }
     }
 
-    public Set<Project> getAffectedDependentProjects(Set<Project> directlyChangedProjects) {
-        //We use this to have a way to break our of recursion when we have already seen that project once
-        //This makes it possible to avoid infinite recursion and also speeds up the process
-        Set<Project> alreadyVisitedProjects = new HashSet<>();
+    private DependentEdgeKind mergeEdgeKinds(DependentEdgeKind first, DependentEdgeKind second) {
+        return first == DependentEdgeKind.TRANSITIVE || second == DependentEdgeKind.TRANSITIVE ? DependentEdgeKind.TRANSITIVE : DependentEdgeKind.DIRECT;
+    }
 
-        return directlyChangedProjects.stream()
-                .map(p -> getDependentProjects(p, alreadyVisitedProjects))
-                .flatMap(Collection::stream)
-                .collect(Collectors.toSet());
+    /**
+     * Gets the projects that the changed path belongs to.
+     * A path inside a project of an included build belongs to the projects of this build depending on it.
+     * This is safe to call from multiple threads, as the lookup only reads the index built up front.
+     * @param path the changed path relative to the git root using / as separator
+     * @return the projects the path belongs to or an empty set if the path is not inside any project directory
+     */
+    public Set<Project> getChangedProjects(String path) {
+        return projectLookupIndex.getProjects(path);
+    }
+
+    /**
+     * Returns whether a change to the path can be observed by the projects that depend on the project owning the path.
+     * Changes to the configured non-propagating source sets, like the test sources, cannot.
+     * This is safe to call from multiple threads.
+     * @param owner the project the path belongs to
+     * @param path the changed path relative to the git root using / as separator
+     * @return true if the dependents of the owner are affected by the change
+     */
+    public boolean isPropagatingChange(Project owner, String path) {
+        Optional<DependentEdgeKind> substitutionEdgeKind = projectLookupIndex.getSubstitutionEdgeKind(owner, path);
+        if (substitutionEdgeKind.isPresent()) {
+            //The owner depends on the changed project of an included build, so it is the kind of that dependency which decides
+            return substitutionEdgeKind.get() == DependentEdgeKind.TRANSITIVE;
+        }
+        List<String> sourceDirs = nonPropagatingSourceDirs.getOrDefault(owner, Collections.emptyList());
+        return sourceDirs.stream().noneMatch(path::startsWith);
     }
 
-    private Set<Project> getDependentProjects(Project project, Set<Project> alreadyVisitedProjects) {
-        //If we have already visited the project, we can just return empty as we have evaluated dependent projects in another call
-        if (alreadyVisitedProjects.contains(project)) {
-            return Collections.emptySet();
+    /**
+     * Finds the projects of this build that the project depends on, directly or through other projects, no matter the kind of the dependencies.
+     * @param dependent the project to find the dependencies of
+     * @return the projects that must be built before the project
+     */
+    public Set<Project> getDependencyProjects(Project dependent) {
+        Set<Project> result = new HashSet<>();
+        Deque<Project> projectsToVisit = new ArrayDeque<>(Collections.singleton(dependent));
+        while (!projectsToVisit.isEmpty()) {
+            Project current = projectsToVisit.poll();
+            //The map goes from a project to its dependents, so the dependencies are the projects having the current one as a dependent
+            projectDependentsMap.forEach((dependency, dependents) -> {
+                if (dependents.containsKey(current) && dependency != dependent && result.add(dependency)) {
+                    projectsToVisit.add(dependency);
+                }
+            });
         }
-        Set<Project> result = new HashSet<>(projectDependentsMap.getOrDefault(project, Collections.emptySet()));
-        alreadyVisitedProjects.add(project);
+        return result;
+    }
+
+    public Set<Project> getAffectedDependentProjects(Set<Project> directlyChangedProjects) {
+        return getAffectedDependentProjects(directlyChangedProjects, new HashMap<>());
+    }
+
+    /**
+     * Finds the projects affected through their dependencies on the changed projects.
+     * @param directlyChangedProjects the projects with changes affecting their dependents
+     * @param reachedFrom receives the project each dependent was first reached from, which gives the shortest dependency path back to a changed project
+     * @return the affected dependent projects
+     */
+    public Set<Project> getAffectedDependentProjects(Set<Project> directlyChangedProjects, Map<Project, Project> reachedFrom) {
+        DependentsTraversalEvent event = new DependentsTraversalEvent();
+        event.begin();
+        //We use this to avoid visiting the dependents of a project more than once
+        //This makes it possible to avoid infinite loops and also speeds up the process
+        Set<Project> alreadyVisitedProjects = new HashSet<>();
+        Set<Project> result = new HashSet<>();
+        Deque<Project> projectsToVisit = new ArrayDeque<>(directlyChangedProjects);
 
         //Continue down the chain until no more new affected projects are found
-        Set<Project> dependents = result.stream()
-                .map(p -> getDependentProjects(p, alreadyVisitedProjects))
-                .flatMap(Collection::stream)
-                .collect(Collectors.toSet());
+        //Dependents reached through a direct edge are affected, but their own dependents are not
+        while (!projectsToVisit.isEmpty()) {
+            Project current = projectsToVisit.poll();
+            if (!alreadyVisitedProjects.add(current)) {
+                continue;
+            }
+            projectDependentsMap.getOrDefault(current, Collections.emptyMap()).forEach((dependent, kind) -> {
+                if (result.add(dependent) && !directlyChangedProjects.contains(dependent)) {
+                    reachedFrom.putIfAbsent(dependent, current);
+                }
+                if (kind == DependentEdgeKind.TRANSITIVE) {
+                    projectsToVisit.add(dependent);
+                }
+            });
+        }
 
-        result.addAll(dependents);
+        event.end();
+        if (event.shouldCommit()) {
+            event.changedProjects = directlyChangedProjects.size();
+            event.dependentProjects = result.size();
+            event.commit();
+        }
         return result;
     }
 
@@ -126,6 +284,8 @@ public class ProjectDependencyProvider {
         if (extension.shouldLog()) {
             logger.lifecycle("Printing project dependents map");
             projectDependentsMap.forEach((key, value) -> logger.lifecycle("Project: {} is a direct dependent for the following {}", key, value));
+            includedModuleConsumers.forEach((key, value) -> logger.lifecycle("Included build {} project {}:{} in {} is a direct dependent for the following {}",
+                    key.getBuildName(), key.getGroup() != null ? key.getGroup() : "<any group>", key.getName(), key.getDirectory(), value));
             logger.lifecycle("");
         }
     }
@@ -0,0 +1,176 @@
+package io.github.crimix.changedprojectstask.providers;
+
+import io.github.crimix.changedprojectstask.configuration.ChangedProjectsConfiguration;
+import io.github.crimix.changedprojectstask.extensions.Extensions;
+import io.github.crimix.changedprojectstask.utils.Pair;
+import lombok.experimental.ExtensionMethod;
+import org.gradle.api.Project;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * A read-only index used to look up which projects a changed path belongs to.
+ * It is built once, such that the canonical project paths and the ownership rules are not evaluated again for every changed path.
+ * The lookup only works on paths relative to the git root, so no files are created or canonicalized for the changed paths.
+ */
+@ExtensionMethod(Extensions.class)
+public class ProjectLookupIndex {
+
+    private final Project rootProject;
+    //The projects by their directory relative to the git root, where the project at the git root has the empty directory
+    private final Map<String, Project> projectsByDirectory;
+    private final List<Pair<Predicate<String>, Set<Project>>> ownershipRules;
+    //The projects of included builds which projects of this build depends on, by their directory relative to the git root
+    private final Map<String, IncludedBuildModule> includedModulesByDirectory;
+    private final Map<IncludedBuildModule, Map<Project, DependentEdgeKind>> includedModuleConsumers;
+    //The owner of each directory that has been looked up, such that paths in the same directory are only looked up once
+    private final Map<String, Optional<Project>> ownersByDirectory = new ConcurrentHashMap<>();
+    private final Map<String, Optional<IncludedBuildModule>> includedModulesByLookup = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the index.
+     * @param project the project
+     * @param extension the configuration
+     * @param includedModuleConsumers the projects of this build depending on each project of an included build
+     */
+    public ProjectLookupIndex(Project project, ChangedProjectsConfiguration extension, Map<IncludedBuildModule, Map<Project, DependentEdgeKind>> includedModuleConsumers) {
+        Path gitRootPath = project.getWorkspaceRootDir().getCanonicalFilePath();
+        this.rootProject = project.getRootProject();
+        //Projects outside the git root cannot contain any of the changed paths, so they are left out
+        this.projectsByDirectory = rootProject.getAllprojects().stream()
+                .filter(p -> p.getCanonicalProjectPath().startsWith(gitRootPath))
+                .collect(Collectors.toMap(p -> toGitPath(gitRootPath, p.getCanonicalProjectPath()), Function.identity(), (first, second) -> first));
+        this.ownershipRules = extension.getOwnershipRegex().getOrElse(Collections.emptyMap()).entrySet().stream()
+                .map(this::compileOwnershipRule)
+                .collect(Collectors.toList());
+        //Included builds nobody in this build depends on are left out, such that their changes are handled like any other file
+        this.includedModulesByDirectory = includedModuleConsumers.keySet().stream()
+                .collect(Collectors.toMap(module -> module.getDirectory().substring(0, module.getDirectory().length() - 1), Function.identity(), (first, second) -> first));
+        this.includedModuleConsumers = includedModuleConsumers;
+    }
+
+    /**
+     * Converts the path to a path relative to the git root using / as separator.
+     * @param gitRootPath the canonical path of the git root
+     * @param path the canonical path inside the git root
+     * @return the path relative to the git root
+     */
+    public static String toGitPath(Path gitRootPath, Path path) {
+        return gitRootPath.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    private Pair<Predicate<String>, Set<Project>> compileOwnershipRule(Map.Entry<Pattern, List<String>> rule) {
+        Set<Project> owners = rule.getValue().stream()
+                .map(path -> {
+                    Project owner = rootProject.findProject(path);
+                    if (owner == null) {
+                        throw new IllegalArgumentException(String.format("changedProjectsTask: ownershipRegex project %s does not exist", path));
+                    }
+                    return owner;
+                })
+                .collect(Collectors.toSet());
+        return new Pair<>(rule.getKey().asMatchPredicate(), owners);
+    }
+
+    /**
+     * Looks up the projects the changed path belongs to.
+     * A path belongs to the project with the deepest project directory containing the path.
+     * If that is the root project and any ownership rules matches the path, it instead belongs to the projects of those rules.
+     * A path inside a project of an included build instead belongs to the projects depending on it,
+     * unless it is in the sources of a non-propagating source set, which the depending projects cannot observe.
+     * @param path the changed path relative to the git root using / as separator
+     * @return the projects the path belongs to or an empty set if the path is not inside any project directory
+     */
+    public Set<Project> getProjects(String path) {
+        IncludedBuildModule module = getIncludedModule(path).orElse(null);
+        if (module != null) {
+            return module.isPropagatingChange(path) ? includedModuleConsumers.get(module).keySet() : Collections.emptySet();
+        }
+
+        Project owner = getOwner(getDirectory(path)).orElse(null);
+
+        if (owner == null) {
+            return Collections.emptySet();
+        } else if (owner != rootProject || ownershipRules.isEmpty()) {
+            return Collections.singleton(owner);
+        }
+
+        Set<Project> owners = ownershipRules.stream()
+                .filter(rule -> rule.getKey().test(path))
+                .flatMap(rule -> rule.getValue().stream())
+                .collect(Collectors.toSet());
+        return owners.isEmpty() ? Collections.singleton(owner) : owners;
+    }
+
+    /**
+     * Gets the kind of the dependency the project has on the project of an included build containing the path.
+     * @param consumer the project
+     * @param path the changed path relative to the git root using / as separator
+     * @return the kind of the dependency or empty if the path is not inside a project of an included build the project depends on
+     */
+    public Optional<DependentEdgeKind> getSubstitutionEdgeKind(Project consumer, String path) {
+        return getIncludedModule(path)
+                .map(module -> includedModuleConsumers.get(module).get(consumer));
+    }
+
+    private Optional<IncludedBuildModule> getIncludedModule(String path) {
+        if (includedModulesByDirectory.isEmpty()) {
+            return Optional.empty();
+        }
+        return getIncludedModuleOfDirectory(getDirectory(path));
+    }
+
+    private Optional<IncludedBuildModule> getIncludedModuleOfDirectory(String directory) {
+        Optional<IncludedBuildModule> cached = includedModulesByLookup.get(directory);
+        if (cached != null) {
+            return cached;
+        }
+        //Walk up until we find the directory of an included project, the same way as for the projects of this build
+        Optional<IncludedBuildModule> module;
+        IncludedBuildModule found = includedModulesByDirectory.get(directory);
+        if (found != null) {
+            module = Optional.of(found);
+        } else if (directory.isEmpty()) {
+            module = Optional.empty();
+        } else {
+            module = getIncludedModuleOfDirectory(getDirectory(directory));
+        }
+        includedModulesByLookup.put(directory, module);
+        return module;
+    }
+
+    private Optional<Project> getOwner(String directory) {
+        Optional<Project> cached = ownersByDirectory.get(directory);
+        if (cached != null) {
+            return cached;
+        }
+        //Walk up until we find a project directory, we do not use computeIfAbsent as the owner of the parent might also be computed
+        Optional<Project> owner;
+        Project project = projectsByDirectory.get(directory);
+        if (project != null) {
+            owner = Optional.of(project);
+        } else if (directory.isEmpty()) {
+            owner = Optional.empty();
+        } else {
+            owner = getOwner(getDirectory(directory));
+        }
+        ownersByDirectory.put(directory, owner);
+        return owner;
+    }
+
+    private static String getDirectory(String path) {
+        int separator = path.lastIndexOf('/');
+        return separator < 0 ? "" : path.substring(0, separator);
+    }
+}
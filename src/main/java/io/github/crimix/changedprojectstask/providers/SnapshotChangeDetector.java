@@ -0,0 +1,274 @@
+package io.github.crimix.changedprojectstask.providers;
+
+import io.github.crimix.changedprojectstask.extensions.Extensions;
+import lombok.SneakyThrows;
+import lombok.experimental.ExtensionMethod;
+import org.gradle.api.Project;
+import org.gradle.api.initialization.IncludedBuild;
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Finds the changed files by comparing the content hashes of the files in the workspace with a snapshot stored after the last successful run.
+ * This is used where git cannot tell what changed, like shallow clones missing the compared commits or sources extracted from an archive.
+ * The size and modification time of each hashed file are kept between runs, such that only the files touched since then are hashed again.
+ */
+@ExtensionMethod(Extensions.class)
+public class SnapshotChangeDetector {
+
+    private static final String SNAPSHOT_FILE = "file-snapshot.properties";
+    private static final String HASH_CACHE_FILE = "file-hashes.properties";
+    private static final Set<String> EXCLUDED_NAMES = Set.of(".git", ".gradle");
+    private static final String BUILD_DIR_NAME = "build";
+    private static final List<String> GRADLE_FILES = List.of("build.gradle", "build.gradle.kts", "settings.gradle", "settings.gradle.kts");
+    //File systems only keep the modification time with this precision, so a file changed this soon after being hashed could look unchanged
+    private static final long MODIFICATION_TIME_PRECISION_MILLIS = 2000;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path rootPath;
+    private final List<Path> scannedDirs;
+    private final Set<Path> excludedDirs;
+    private final Predicate<String> ignoredFilter;
+    private final File snapshotFile;
+    private final File hashCacheFile;
+    private final Logger logger;
+    //The hashes of the files found by the last scan, by their path relative to the workspace root
+    private Map<String, String> currentHashes;
+    private boolean hasStoredSnapshot;
+
+    /**
+     * Creates the detector.
+     * @param project the project
+     * @param ignoredFilter the filter of the ignored paths, which are never hashed
+     */
+    public SnapshotChangeDetector(Project project, Predicate<String> ignoredFilter) {
+        Project rootProject = project.getRootProject();
+        this.rootPath = project.getWorkspaceRootDir().getCanonicalFilePath();
+        Path rootProjectPath = rootProject.getCanonicalProjectPath();
+        //Included builds outside the root project directory would otherwise not be scanned
+        this.scannedDirs = new ArrayList<>();
+        scannedDirs.add(rootProjectPath);
+        for (IncludedBuild build : project.getGradle().getIncludedBuilds()) {
+            Path buildDir = build.getProjectDir().getCanonicalFilePath();
+            if (buildDir.startsWith(rootPath) && !buildDir.startsWith(rootProjectPath)) {
+                scannedDirs.add(buildDir);
+            }
+        }
+        //The build directories are excluded as the tasks we run writes to them, which would always make the projects changed
+        this.excludedDirs = rootProject.getAllprojects().stream()
+                .map(p -> p.getLayout().getBuildDirectory().get().getAsFile())
+                .map(Extensions::getCanonicalFilePath)
+                .collect(Collectors.toCollection(HashSet::new));
+        excludedDirs.add(project.getPluginDataDir().getCanonicalFilePath());
+        this.ignoredFilter = ignoredFilter;
+        this.snapshotFile = new File(project.getPluginDataDir(), SNAPSHOT_FILE);
+        this.hashCacheFile = new File(project.getPluginDataDir(), HASH_CACHE_FILE);
+        this.logger = project.getLogger();
+    }
+
+    /**
+     * Hashes the files of the workspace and compares them with the stored snapshot.
+     * If no snapshot has been stored, all files are changed.
+     * @param changes receives the paths relative to the workspace root using / as separator of the files that were added, changed or removed
+     * @throws IOException if the workspace or the snapshot could not be read
+     */
+    public void findChangedFiles(Consumer<String> changes) throws IOException {
+        long scanStart = System.currentTimeMillis();
+        Map<String, FileState> files = scanFiles();
+        Properties hashCache = load(hashCacheFile);
+
+        //Only the files which size or modification time differs from when they were last hashed are read
+        List<FileState> toHash = new ArrayList<>();
+        Map<String, String> hashes = new ConcurrentHashMap<>();
+        for (FileState file : files.values()) {
+            String cached = hashCache.getProperty(file.path);
+            String prefix = file.getCacheKey();
+            if (cached != null && cached.startsWith(prefix)) {
+                hashes.put(file.path, cached.substring(prefix.length()));
+            } else {
+                toHash.add(file);
+            }
+        }
+        try {
+            toHash.parallelStream().forEach(file -> hashes.put(file.path, hash(file.file)));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("Hashed {} of {} files to compare with the snapshot", toHash.size(), files.size());
+        }
+
+        Properties snapshot = load(snapshotFile);
+        hasStoredSnapshot = snapshotFile.exists();
+        currentHashes = new TreeMap<>(hashes);
+        currentHashes.forEach((path, hash) -> {
+            if (!hash.equals(snapshot.getProperty(path))) {
+                changes.accept(path);
+            }
+        });
+        snapshot.stringPropertyNames().stream()
+                .filter(path -> !currentHashes.containsKey(path))
+                .sorted()
+                .forEach(changes);
+
+        storeHashCache(files, scanStart);
+    }
+
+    /**
+     * Returns whether a snapshot from an earlier run was compared with, otherwise all files were changed.
+     * @return true if there was a stored snapshot
+     */
+    public boolean hasStoredSnapshot() {
+        return hasStoredSnapshot;
+    }
+
+    /**
+     * Stores the hashes found by {@link #findChangedFiles(Consumer)} as the snapshot the next run compares with.
+     * This should only be done after a successful run, such that the changes of a failed run are found again.
+     * @throws IOException if the snapshot could not be written
+     */
+    public void storeSnapshot() throws IOException {
+        if (currentHashes == null) {
+            return;
+        }
+        Properties snapshot = new Properties();
+        snapshot.putAll(currentHashes);
+        store(snapshotFile, snapshot, "Content hashes of the files from the last successful run");
+    }
+
+    private Map<String, FileState> scanFiles() throws IOException {
+        Map<String, FileState> result = new TreeMap<>();
+        for (Path scannedDir : scannedDirs) {
+            Files.walkFileTree(scannedDir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    return isExcludedDirectory(dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && !EXCLUDED_NAMES.contains(file.getFileName().toString())) {
+                        String path = ProjectLookupIndex.toGitPath(rootPath, file);
+                        if (!ignoredFilter.test(path)) {
+                            result.put(path, new FileState(path, file, attrs.size(), attrs.lastModifiedTime().toMillis()));
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        return result;
+    }
+
+    private boolean isExcludedDirectory(Path dir) {
+        Path name = dir.getFileName();
+        if (excludedDirs.contains(dir)) {
+            return true;
+        } else if (name == null || scannedDirs.contains(dir)) {
+            return false;
+        } else if (EXCLUDED_NAMES.contains(name.toString())) {
+            return true;
+        }
+        //The build directories of builds that are not part of this build, like buildSrc, are only known by being next to a build script
+        Path parent = dir.getParent();
+        return BUILD_DIR_NAME.equals(name.toString()) && parent != null
+                && GRADLE_FILES.stream().anyMatch(file -> Files.isRegularFile(parent.resolve(file)));
+    }
+
+    @SneakyThrows
+    private static String hash(Path file) {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(file)) {
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                digest.update(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Could not hash %s", file), e);
+        }
+        byte[] bytes = digest.digest();
+        char[] result = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            result[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            result[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(result);
+    }
+
+    private void storeHashCache(Map<String, FileState> files, long scanStart) {
+        Properties hashCache = new Properties();
+        for (FileState file : files.values()) {
+            //A file modified right before it was scanned could be modified again without its modification time changing, so it is hashed again next time
+            if (file.modified < scanStart - MODIFICATION_TIME_PRECISION_MILLIS) {
+                hashCache.setProperty(file.path, file.getCacheKey() + currentHashes.get(file.path));
+            }
+        }
+        try {
+            store(hashCacheFile, hashCache, "Sizes, modification times and content hashes of the files");
+        } catch (IOException e) {
+            //The cache only makes later runs faster, so failing to store it should not fail the build
+            logger.warn("Failed to store the file hash cache: {}", e.getMessage());
+        }
+    }
+
+    private static Properties load(File file) throws IOException {
+        Properties properties = new Properties();
+        if (file.exists()) {
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                properties.load(in);
+            }
+        }
+        return properties;
+    }
+
+    private static void store(File file, Properties properties, String comment) throws IOException {
+        //Written to a temporary file first, such that concurrent builds never read a partially written file
+        Files.createDirectories(file.getParentFile().toPath());
+        Path temporary = Files.createTempFile(file.getParentFile().toPath(), file.getName(), ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporary)) {
+            properties.store(out, comment);
+        }
+        Files.move(temporary, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class FileState {
+        private final String path;
+        private final Path file;
+        private final long size;
+        private final long modified;
+
+        private FileState(String path, Path file, long size, long modified) {
+            this.path = path;
+            this.file = file;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        private String getCacheKey() {
+            return size + ":" + modified + ":";
+        }
+    }
+}
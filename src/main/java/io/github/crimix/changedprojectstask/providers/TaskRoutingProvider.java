@@ -0,0 +1,81 @@
+package io.github.crimix.changedprojectstask.providers;
+
+import io.github.crimix.changedprojectstask.configuration.ChangedProjectsConfiguration;
+import io.github.crimix.changedprojectstask.extensions.Extensions;
+import io.github.crimix.changedprojectstask.utils.Pair;
+import lombok.experimental.ExtensionMethod;
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * This class is responsible for finding which tasks a changed file should cause to run on the project it belongs to.
+ * Files not matching any of the task routing rules runs the task to run.
+ */
+@ExtensionMethod(Extensions.class)
+public class TaskRoutingProvider {
+
+    private final ChangedProjectsConfiguration extension;
+    private final Set<String> defaultTasks;
+    private final List<Pair<Pattern, Set<String>>> rules;
+
+    public TaskRoutingProvider(Project project, ChangedProjectsConfiguration extension) {
+        this.extension = extension;
+        this.defaultTasks = new LinkedHashSet<>(project.getTasksToRun(extension));
+        this.rules = extension.getTaskRoutingRegex().getOrElse(Collections.emptyMap()).entrySet().stream()
+                .map(rule -> new Pair<>(rule.getKey(), (Set<String>) new LinkedHashSet<>(rule.getValue())))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Gets the names of the tasks to run when no task routing rule applies, such as for dependent projects.
+     * @return the names of the default tasks
+     */
+    public Set<String> getDefaultTasks() {
+        return defaultTasks;
+    }
+
+    /**
+     * Gets the names of all the tasks that can be run, which is the default tasks and those of all task routing rules.
+     * @return the names of all the tasks that can be run
+     */
+    public Set<String> getAllTasks() {
+        Set<String> result = new LinkedHashSet<>(defaultTasks);
+        rules.forEach(rule -> result.addAll(rule.getValue()));
+        return result;
+    }
+
+    /**
+     * Gets the names of the tasks the changed path should run on the project it belongs to.
+     * @param path the changed path relative to the git root using / as separator
+     * @return the union of the tasks of all matching rules or the default tasks if no rule matches
+     */
+    public Set<String> getTasks(String path) {
+        if (rules.isEmpty()) {
+            return defaultTasks;
+        }
+        Set<String> result = rules.stream()
+                .filter(rule -> rule.getKey().matcher(path).matches())
+                .flatMap(rule -> rule.getValue().stream())
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        return result.isEmpty() ? defaultTasks : result;
+    }
+
+    /**
+     * Prints debug information if it has been enabled
+     * @param logger the logger to print information to
+     */
+    public void printDebug(Logger logger) {
+        if (extension.shouldLog()) {
+            logger.lifecycle("Default tasks {}", defaultTasks);
+            rules.forEach(rule -> logger.lifecycle("Task routing rule {} runs {}", rule.getKey(), rule.getValue()));
+            logger.lifecycle("");
+        }
+    }
+}
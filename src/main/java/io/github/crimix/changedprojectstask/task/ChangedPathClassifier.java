@@ -0,0 +1,132 @@
+package io.github.crimix.changedprojectstask.task;
+
+import io.github.crimix.changedprojectstask.events.ProjectMappingEvent;
+import io.github.crimix.changedprojectstask.providers.ProjectDependencyProvider;
+import io.github.crimix.changedprojectstask.providers.TaskRoutingProvider;
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Classifies the changed paths by the projects they directly affect.
+ * Big diffs are split into chunks that are classified in parallel, as every path is looked up on its own.
+ * This only uses the read-only lookups of the providers, so no Gradle model is touched from the worker threads.
+ */
+public class ChangedPathClassifier {
+
+    //Below this the cost of forking is higher than what is gained from the parallel lookups
+    private static final int PARALLEL_THRESHOLD = 4096;
+    private static final int CHUNK_SIZE = 1024;
+
+    private final ProjectDependencyProvider projectDependencyProvider;
+    private final TaskRoutingProvider taskRoutingProvider;
+    private final Logger logger;
+    private final boolean debugLogging;
+
+    public ChangedPathClassifier(ProjectDependencyProvider projectDependencyProvider, TaskRoutingProvider taskRoutingProvider, Logger logger, boolean debugLogging) {
+        this.projectDependencyProvider = projectDependencyProvider;
+        this.taskRoutingProvider = taskRoutingProvider;
+        this.logger = logger;
+        this.debugLogging = debugLogging;
+    }
+
+    /**
+     * Classifies the changed paths by the projects they belong to.
+     * @param changedPaths the changed paths relative to the git root using / as separator
+     * @return the changes of each directly affected project
+     */
+    public Map<Project, DirectChanges> classify(List<String> changedPaths) {
+        ProjectMappingEvent event = new ProjectMappingEvent();
+        event.begin();
+        boolean parallel = changedPaths.size() >= PARALLEL_THRESHOLD;
+        Map<Project, DirectChanges> result = parallel
+                ? ForkJoinPool.commonPool().invoke(new ClassifyTask(changedPaths, 0, changedPaths.size()))
+                : classifyChunk(changedPaths, 0, changedPaths.size());
+        event.end();
+        if (event.shouldCommit()) {
+            event.paths = changedPaths.size();
+            event.affectedProjects = result.size();
+            event.parallel = parallel;
+            event.commit();
+        }
+        return result;
+    }
+
+    private Map<Project, DirectChanges> classifyChunk(List<String> changedPaths, int from, int to) {
+        //The tasks and propagation are collected in mutable structures, as merging the immutable changes for every path is wasteful
+        Map<Project, Set<String>> tasks = new HashMap<>();
+        Set<Project> propagating = new HashSet<>();
+        Map<Project, Integer> changedFiles = new HashMap<>();
+        Map<Project, List<String>> sampleFiles = new HashMap<>();
+        StringBuilder debug = debugLogging ? new StringBuilder() : null;
+
+        for (int i = from; i < to; i++) {
+            String path = changedPaths.get(i);
+            Set<Project> owners = projectDependencyProvider.getChangedProjects(path);
+            if (debug != null) {
+                debug.append(String.format("File %s belongs to %s%n", path, owners));
+            }
+            for (Project owner : owners) {
+                tasks.computeIfAbsent(owner, k -> new LinkedHashSet<>()).addAll(taskRoutingProvider.getTasks(path));
+                changedFiles.merge(owner, 1, Integer::sum);
+                List<String> samples = sampleFiles.computeIfAbsent(owner, k -> new ArrayList<>());
+                if (samples.size() < DirectChanges.MAX_SAMPLE_FILES) {
+                    samples.add(path);
+                }
+                //Once a project is known to propagate, the remaining paths do not need to be checked, unless we have to log them
+                if (propagating.contains(owner) && debug == null) {
+                    continue;
+                }
+                if (projectDependencyProvider.isPropagatingChange(owner, path)) {
+                    propagating.add(owner);
+                } else if (debug != null) {
+                    debug.append(String.format("File %s does not affect dependents of %s%n", path, owner));
+                }
+            }
+        }
+
+        //Logged once per chunk, as logging every path on its own is slow for big diffs
+        if (debug != null && debug.length() > 0) {
+            logger.lifecycle(debug.toString().trim());
+        }
+
+        Map<Project, DirectChanges> result = new HashMap<>();
+        tasks.forEach((project, projectTasks) -> result.put(project,
+                new DirectChanges(propagating.contains(project), projectTasks, changedFiles.get(project), sampleFiles.get(project))));
+        return result;
+    }
+
+    private class ClassifyTask extends RecursiveTask<Map<Project, DirectChanges>> {
+        private final List<String> changedPaths;
+        private final int from;
+        private final int to;
+
+        private ClassifyTask(List<String> changedPaths, int from, int to) {
+            this.changedPaths = changedPaths;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Map<Project, DirectChanges> compute() {
+            if (to - from <= CHUNK_SIZE) {
+                return classifyChunk(changedPaths, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            ClassifyTask first = new ClassifyTask(changedPaths, from, middle);
+            first.fork();
+            Map<Project, DirectChanges> result = new ClassifyTask(changedPaths, middle, to).compute();
+            first.join().forEach((project, changes) -> result.merge(project, changes, DirectChanges::merge));
+            return result;
+        }
+    }
+}
@@ -2,37 +2,76 @@ package io.github.crimix.changedprojectstask.task;
 
 import io.github.crimix.changedprojectstask.configuration.ChangedProjectsChoice;
 import io.github.crimix.changedprojectstask.configuration.ChangedProjectsConfiguration;
+import io.github.crimix.changedprojectstask.events.ChildProcessEvent;
 import io.github.crimix.changedprojectstask.extensions.Extensions;
+import io.github.crimix.changedprojectstask.providers.AbiFingerprintProvider;
 import io.github.crimix.changedprojectstask.providers.ChangedFilesProvider;
 import io.github.crimix.changedprojectstask.providers.ProjectDependencyProvider;
-import io.github.crimix.changedprojectstask.utils.LoggingOutputStream;
+import io.github.crimix.changedprojectstask.providers.TaskRoutingProvider;
+import io.github.crimix.changedprojectstask.utils.ChangedPaths;
+import io.github.crimix.changedprojectstask.utils.OutputMultiplexer;
+import io.github.crimix.changedprojectstask.utils.ProcessOutput;
+import io.github.crimix.changedprojectstask.utils.ProcessTreeWatchdog;
 import lombok.SneakyThrows;
 import lombok.experimental.ExtensionMethod;
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.ExecuteException;
 import org.apache.commons.exec.PumpStreamHandler;
 import org.gradle.api.Project;
 import org.gradle.api.Task;
+import org.gradle.api.execution.TaskExecutionGraph;
 import org.gradle.api.logging.Logger;
+import org.gradle.api.plugins.JavaPlugin;
 
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 @ExtensionMethod(Extensions.class)
 public class ChangedProjectsTask {
 
+    private static final String SELECTION_REPORT_DIR = "reports/changed-projects";
+    private static final String PROCESS_LOG_DIR = "changed-projects/logs";
+    //The name of the process building the projects shared by the processes of a phase, which is also the name of its log file
+    private static final String SHARED_DEPENDENCIES_JOB = "shared-dependencies";
+
     private final Project project;
     private final Task task;
     private final ChangedProjectsConfiguration extension;
 
+    private ChangedFilesProvider changedFilesProvider;
+    private ProjectDependencyProvider projectDependencyProvider;
+    private AbiFingerprintProvider abiFingerprintProvider;
+    private TaskRoutingProvider taskRoutingProvider;
     private boolean affectsAll = false;
     private Set<Project> affectedProjects = new HashSet<>();
+    private Set<Project> dependentAffectedProjects = new HashSet<>();
+    private Map<Project, Set<String>> directlyAffectedTasks = new HashMap<>();
     private Set<Project> alwaysRunProjects = new HashSet<>();
     private Set<Project> neverRunProjects = new HashSet<>();
+    private Map<Project, Set<Project>> dependentsByChangedProject = new HashMap<>();
+    //The number of dependency edges between each affected project and the closest directly changed project
+    private Map<Project, Integer> changeDistances = new HashMap<>();
+    private SelectionReport selectionReport;
+    private OutputMultiplexer outputMultiplexer;
 
     private ChangedProjectsTask(Project project, Task task, ChangedProjectsConfiguration extension) {
         this.project = project;
@@ -59,25 +98,145 @@ public class ChangedProjectsTask {
         configureAfterAllEvaluate();
         if (project.shouldUseCommandLine()) {
             commandLineRunProjects();
+            if (project.shouldWatch()) {
+                watchAndRunProjects();
+            }
         }
     }
 
     private void commandLineRunProjects() {
-        for (Project project : project.getAllprojects()) {
-            if (shouldProjectRun(project)) {
-                runCommandLineOnProject(project);
+        List<Project> projects = new ArrayList<>(project.getAllprojects());
+        //The projects closest to the change are the most likely to fail, so they are run first to report failures sooner
+        projects.sort(Comparator.comparing((Project p) -> changeDistances.getOrDefault(p, Integer.MAX_VALUE)));
+        if (extension.shouldLog()) {
+            getLogger().lifecycle("Distance of the projects from the change: {}", changeDistances);
+        }
+        boolean failFastAfterFirstTier = extension.shouldFailFastAfterFirstTier();
+        List<List<Project>> phases;
+        if (abiFingerprintProvider != null || failFastAfterFirstTier) {
+            //The directly changed projects must be done before the rest are started,
+            //such that their classes are compiled before checking if their public API changed, and such that a failure stops the rest
+            Map<Boolean, List<Project>> partitioned = projects.stream()
+                    .collect(Collectors.partitioningBy(p -> changeDistances.getOrDefault(p, Integer.MAX_VALUE) == 0));
+            phases = List.of(partitioned.get(true), partitioned.get(false));
+        } else {
+            phases = List.of(projects);
+        }
+        //The deadline of the total time budget, or zero if there is none
+        Duration totalTimeout = extension.getTotalTimeout().getOrNull();
+        long deadline = totalTimeout == null ? 0 : System.nanoTime() + totalTimeout.toNanos();
+        //Everything the processes need is resolved here, as the Gradle model should not be read from the threads of the scheduler
+        Duration processTimeout = extension.getProcessTimeout().getOrNull();
+        boolean abortOnTimeout = extension.shouldAbortOnTimeout();
+        boolean debugLogging = extension.shouldLog();
+        OutputMultiplexer outputMultiplexer = getOutputMultiplexer();
+        Logger logger = getLogger();
+        //The processes are run from the threads of the scheduler, so these are written from more than one thread
+        List<String> timedOutProjects = Collections.synchronizedList(new ArrayList<>());
+        List<String> notRunProjects = Collections.synchronizedList(new ArrayList<>());
+        int maxParallel = extension.getParallelProcessLimit(project);
+        ProcessScheduler scheduler = createProcessScheduler(maxParallel);
+        ProcessPhasePlanner<Project> planner = new ProcessPhasePlanner<>(phases, abiFingerprintProvider != null, this::getTasksToRun);
+        for (int i = 0; i < phases.size(); i++) {
+            boolean firstTierFailed = failFastAfterFirstTier && i > 0 && !timedOutProjects.isEmpty();
+            if (i > 0 && abiFingerprintProvider != null) {
+                //Only fingerprints of the classes compiled by the first phase can tell whether the public API changed
+                abiFingerprintProvider.forgetFingerprints();
+            }
+            //The jobs are created before any process is started, for the same reason
+            Map<Project, Set<String>> plannedTasks = planner.plan(i);
+            List<ProcessJob> jobs = plannedTasks.entrySet().stream()
+                    .map(entry -> createProcessJob(entry.getKey(), entry.getValue()))
+                    .collect(Collectors.toList());
+            //The processes running at the same time would otherwise all build the projects they share, writing the same outputs at once
+            Optional<ProcessJob> sharedDependenciesJob = maxParallel > 1 ? createSharedDependenciesJob(plannedTasks.keySet()) : Optional.empty();
+            Consumer<ProcessJob> runJob = job -> {
+                Duration timeout = getProcessTimeout(processTimeout, deadline);
+                boolean aborted = firstTierFailed || (!timedOutProjects.isEmpty() && abortOnTimeout);
+                if (aborted || (timeout != null && timeout.isNegative())) {
+                    notRunProjects.add(job.getProjectPath());
+                } else if (!runCommandLineOnProject(job, timeout, outputMultiplexer, logger, debugLogging)) {
+                    timedOutProjects.add(job.getProjectPath());
+                }
+            };
+            sharedDependenciesJob.ifPresent(runJob);
+            scheduler.run(jobs, ProcessJob::getMemory, runJob);
+        }
+        if (!timedOutProjects.isEmpty() || !notRunProjects.isEmpty()) {
+            throw new IllegalStateException(String.format("Ran out of time, %s timed out and %s were not run", timedOutProjects, notRunProjects));
+        }
+        if (abiFingerprintProvider != null) {
+            abiFingerprintProvider.storeFingerprints(dependentsByChangedProject.keySet());
+        }
+        changedFilesProvider.storeSnapshot();
+    }
+
+    private void watchAndRunProjects() {
+        //The always and never run projects are not configured if the initial run found no changes
+        configureAlwaysAndNeverRun(getRootProject());
+        new ChangedProjectsWatcher(project).watch(this::runWatchedChanges);
+    }
+
+    private void runWatchedChanges(List<String> changedPaths) {
+        ChangedPaths changedFiles = ChangedPaths.of(changedPaths.stream()
+                .filter(Predicate.not(changedFilesProvider::isIgnored))
+                .collect(Collectors.toList()));
+        if (changedFiles.isEmpty()) {
+            return;
+        }
+        if (extension.shouldLog()) {
+            getLogger().lifecycle("Watched changed files: {}", changedFiles);
+        }
+
+        //We only run the projects affected by this batch of changes, not everything that has been affected since the start
+        Set<String> defaultTasks = getTaskRoutingProvider().getDefaultTasks();
+        Map<Project, Set<String>> batchAffectedTasks = new HashMap<>();
+        if (changedFiles.stream().anyMatch(changedFilesProvider::isAffectingAllProjects)) {
+            getRootProject().getAllprojects().forEach(p -> batchAffectedTasks.put(p, new LinkedHashSet<>(defaultTasks)));
+        } else {
+            Map<Project, DirectChanges> directlyAffected = evaluateDirectAffectedProjects(changedFiles, getProjectDependencyProvider());
+            directlyAffected.forEach((p, changes) -> batchAffectedTasks.put(p, new LinkedHashSet<>(changes.getTasks())));
+            Set<Project> otherAffectedProjects = new HashSet<>(alwaysRunProjects);
+            if (ChangedProjectsChoice.INCLUDE_DEPENDENTS == extension.getPluginMode()) {
+                otherAffectedProjects.addAll(getProjectDependencyProvider().getAffectedDependentProjects(getPropagatingProjects(directlyAffected)));
+            }
+            otherAffectedProjects.forEach(p -> batchAffectedTasks.computeIfAbsent(p, k -> new LinkedHashSet<>()).addAll(defaultTasks));
+        }
+        batchAffectedTasks.keySet().removeAll(neverRunProjects);
+        affectedProjects.addAll(batchAffectedTasks.keySet());
+        getLogger().lifecycle("Changes affect {}, affected since start {}", batchAffectedTasks.keySet(), affectedProjects);
+
+        for (Project project : getRootProject().getAllprojects()) {
+            Set<String> tasksToRun = batchAffectedTasks.get(project);
+            if (tasksToRun != null) {
+                try {
+                    runCommandLineOnProject(createProcessJob(project, tasksToRun), extension.getProcessTimeout().getOrNull(),
+                            getOutputMultiplexer(), getLogger(), extension.shouldLog());
+                } catch (Exception e) {
+                    //A failing project should not stop the watch, the user is expected to fix it and save again
+                    getLogger().error("Running {} failed: {}", tasksToRun, e.getMessage());
+                }
             }
         }
     }
 
     private void configureProject(Project project) {
         project.afterEvaluate(p -> {
-            String path = getPathToTask(p);
-            task.dependsOn(path);
-            Task otherTask = p.getTasks().findByPath(path);
-            if (otherTask != null) {
-                otherTask.onlyIf(t -> shouldProjectRun(p));
-                //configureTaskDependenciesRecursively(otherTask, t -> shouldProjectRun(p));
+            Set<String> defaultTasks = getTaskRoutingProvider().getDefaultTasks();
+            for (String taskName : getTaskRoutingProvider().getAllTasks()) {
+                String path = getPathToTask(p, taskName);
+                Task otherTask = p.getTasks().findByPath(path);
+                //The tasks from the task routing rules are only added for the projects that have them
+                if (otherTask != null || defaultTasks.contains(taskName)) {
+                    task.dependsOn(path);
+                }
+                if (otherTask != null && defaultTasks.contains(taskName)) {
+                    otherTask.onlyIf(t -> getTasksToRun(p).contains(taskName));
+                } else if (otherTask != null) {
+                    //A routed task can also be a dependency of a selected task, like processResources is of test, which must then run
+                    otherTask.onlyIf(t -> getTasksToRun(p).contains(taskName) || isDependencyOfTasksToRun(p, t));
+                    //configureTaskDependenciesRecursively(otherTask, t -> shouldProjectRun(p));
+                }
             }
         });
     }
@@ -91,8 +250,69 @@ public class ChangedProjectsTask {
     }
     */
 
-    private boolean shouldProjectRun(Project p) {
-        return !neverRunProjects.contains(p) && (affectsAll || affectedProjects.contains(p) || alwaysRunProjects.contains(p));
+    private boolean isDependencyOfTasksToRun(Project p, Task routedTask) {
+        TaskExecutionGraph taskGraph = p.getGradle().getTaskGraph();
+        Deque<Task> tasksToVisit = getTasksToRun(p).stream()
+                .map(taskName -> p.getTasks().findByPath(getPathToTask(p, taskName)))
+                .filter(Objects::nonNull)
+                .filter(taskGraph::hasTask)
+                .collect(Collectors.toCollection(ArrayDeque::new));
+        //Only the tasks of the project are followed, as the routed task cannot be reached through other projects in any normal build
+        Set<Task> visitedTasks = new HashSet<>();
+        while (!tasksToVisit.isEmpty()) {
+            Task current = tasksToVisit.poll();
+            if (!visitedTasks.add(current)) {
+                continue;
+            }
+            for (Task dependency : taskGraph.getDependencies(current)) {
+                if (dependency == routedTask) {
+                    return true;
+                } else if (dependency.getProject() == p) {
+                    tasksToVisit.add(dependency);
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean shouldProjectRun(Project p, boolean checkAbi) {
+        return !neverRunProjects.contains(p) && (affectsAll || affectedProjects.contains(p) || alwaysRunProjects.contains(p)
+                || (checkAbi && isDependentWithChangedAbi(p)));
+    }
+
+    private Set<String> getTasksToRun(Project p) {
+        return getTasksToRun(p, true);
+    }
+
+    /**
+     * Gets the tasks to run for the project.
+     * @param p the project
+     * @param checkAbi whether the public API of the changed projects may be checked, which is only the case when their classes have been compiled
+     * @return the task names or an empty set if the project should not run
+     */
+    private Set<String> getTasksToRun(Project p, boolean checkAbi) {
+        if (!shouldProjectRun(p, checkAbi)) {
+            return Collections.emptySet();
+        }
+        Set<String> routedTasks = directlyAffectedTasks.get(p);
+        boolean onlyDirectlyAffected = routedTasks != null && !affectsAll && !alwaysRunProjects.contains(p)
+                && !dependentAffectedProjects.contains(p) && !(checkAbi && isDependentWithChangedAbi(p));
+        if (onlyDirectlyAffected) {
+            return routedTasks;
+        }
+
+        //Projects that are run for other reasons than their own changed files, also runs the default tasks
+        Set<String> result = new LinkedHashSet<>(getTaskRoutingProvider().getDefaultTasks());
+        if (routedTasks != null) {
+            result.addAll(routedTasks);
+        }
+        return result;
+    }
+
+    private boolean isDependentWithChangedAbi(Project p) {
+        return dependentsByChangedProject.entrySet().stream()
+                .filter(entry -> entry.getValue().contains(p))
+                .anyMatch(entry -> abiFingerprintProvider.hasAbiChanged(entry.getKey()));
     }
 
     private void configureAfterAllEvaluate() {
@@ -100,62 +320,262 @@ public class ChangedProjectsTask {
         if (hasBeenEnabled()) {
             extension.print(project, getLogger());
             Project project = getRootProject();
-            ChangedFilesProvider changedFilesProvider = new ChangedFilesProvider(project, extension);
+            changedFilesProvider = new ChangedFilesProvider(project, extension);
             changedFilesProvider.printDebug(getLogger());
+            if (!project.shouldUseCommandLine()) {
+                //The snapshot is only stored when all the tasks the plugin's task depends on has succeeded
+                task.doLast(t -> changedFilesProvider.storeSnapshot());
+            }
 
-            if (changedFilesProvider.getChangedFiles().isEmpty() && !changedFilesProvider.isAllProjectsAffected()) {
+            if (changedFilesProvider.getChangedPaths().isEmpty() && !changedFilesProvider.isAllProjectsAffected()) {
                 return; //If there are no changes, and we are not forced to run all projects, just skip the rest of the configuration
             }
 
             configureAlwaysAndNeverRun(project);
+            selectionReport = new SelectionReport(changedFilesProvider.getComparison(), changedFilesProvider.getChangedPaths().size());
+            alwaysRunProjects.forEach(selectionReport::addAlwaysRun);
+            neverRunProjects.forEach(selectionReport::addExcluded);
 
             // If we have already determined that we should run all, then no need to spend more time on finding the specific projects
             if (changedFilesProvider.isAllProjectsAffected()) {
                 affectsAll = true;
+                changedFilesProvider.getAffectsAllPath().ifPresent(path -> {
+                    List<String> patterns = changedFilesProvider.getMatchingAffectsAllRegexes(path);
+                    project.getAllprojects().forEach(p -> selectionReport.addAffectsAll(p, path, patterns));
+                });
             } else {
-                ProjectDependencyProvider projectDependencyProvider = new ProjectDependencyProvider(project, extension);
-                projectDependencyProvider.printDebug(getLogger());
+                ProjectDependencyProvider projectDependencyProvider = getProjectDependencyProvider();
 
-                Set<Project> directlyAffectedProjects = evaluateDirectAffectedProjects(changedFilesProvider, projectDependencyProvider);
+                Map<Project, DirectChanges> directlyAffected = evaluateDirectAffectedProjects(changedFilesProvider.getChangedPaths(), projectDependencyProvider);
+                Set<Project> directlyAffectedProjects = directlyAffected.keySet();
+                Set<Project> propagatingProjects = getPropagatingProjects(directlyAffected);
+                directlyAffected.forEach((p, changes) -> directlyAffectedTasks.put(p, changes.getTasks()));
+                directlyAffected.forEach(selectionReport::addChangedFiles);
+                directlyAffectedProjects.forEach(p -> changeDistances.put(p, 0));
 
                 if (extension.shouldLog()) {
                     getLogger().lifecycle("Directly affected projects: {}", directlyAffectedProjects);
+                    getLogger().lifecycle("Directly affected projects with changes affecting dependents: {}", propagatingProjects);
+                    getLogger().lifecycle("Directly affected projects tasks: {}", directlyAffectedTasks);
                 }
 
-                Set<Project> dependentAffectedProjects = new HashSet<>();
-                if (ChangedProjectsChoice.INCLUDE_DEPENDENTS == extension.getPluginMode()) {
-                    dependentAffectedProjects.addAll(projectDependencyProvider.getAffectedDependentProjects(directlyAffectedProjects));
+                if (extension.shouldUseAbiCutoff()) {
+                    configureAbiCutoff(propagatingProjects, projectDependencyProvider);
+                } else if (ChangedProjectsChoice.INCLUDE_DEPENDENTS == extension.getPluginMode()) {
+                    Map<Project, Project> reachedFrom = new HashMap<>();
+                    dependentAffectedProjects.addAll(projectDependencyProvider.getAffectedDependentProjects(propagatingProjects, reachedFrom));
+                    reachedFrom.keySet().forEach(p -> {
+                        List<Project> path = getDependencyPath(p, reachedFrom);
+                        selectionReport.addDependency(p, path);
+                        changeDistances.merge(p, path.size() - 1, Math::min);
+                    });
                     if (extension.shouldLog()) {
                         getLogger().lifecycle("Dependent affected Projects: {}", dependentAffectedProjects);
                     }
                 }
 
                 affectedProjects = Stream.concat(directlyAffectedProjects.stream(), dependentAffectedProjects.stream())
-                        .collect(Collectors.toSet());
+                        .collect(Collectors.toCollection(HashSet::new));
             }
+            writeSelectionReport();
         }
     }
 
-    @SneakyThrows
-    private void runCommandLineOnProject(Project affected) {
-        String commandLine = String.format("%s %s %s", getGradleWrapper(), getPathToTask(affected), project.getCommandLineArgs());
+    private List<Project> getDependencyPath(Project dependent, Map<Project, Project> reachedFrom) {
+        //Walk back to the changed project, which is the only project on the path not reached from another project
+        List<Project> path = new ArrayList<>();
+        for (Project current = dependent; current != null; current = reachedFrom.get(current)) {
+            path.add(current);
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    private void writeSelectionReport() {
+        File reportDir = getRootProject().getLayout().getBuildDirectory().dir(SELECTION_REPORT_DIR).get().getAsFile();
+        try {
+            selectionReport.write(reportDir);
+            if (extension.shouldLog()) {
+                getLogger().lifecycle("Selection report written to {}", reportDir);
+            }
+        } catch (IOException e) {
+            //The report only explains the selection, so failing to write it should not fail the build
+            getLogger().warn("Could not write the selection report to {}: {}", reportDir, e.getMessage());
+        }
+    }
+
+    private void configureAbiCutoff(Set<Project> propagatingProjects, ProjectDependencyProvider projectDependencyProvider) {
+        //Whether the dependents should run can only be known after the changed project has been compiled,
+        //so we keep the dependents of each changed project and decide when the tasks are about to run
+        abiFingerprintProvider = new AbiFingerprintProvider(getRootProject(), extension);
+        for (Project changedProject : propagatingProjects) {
+            Map<Project, Project> reachedFrom = new HashMap<>();
+            dependentsByChangedProject.put(changedProject, projectDependencyProvider.getAffectedDependentProjects(Collections.singleton(changedProject), reachedFrom));
+            reachedFrom.keySet().forEach(p -> {
+                List<Project> path = getDependencyPath(p, reachedFrom);
+                selectionReport.addAbiDependency(p, path);
+                changeDistances.merge(p, path.size() - 1, Math::min);
+            });
+        }
         if (extension.shouldLog()) {
-            getLogger().lifecycle("Running {}", commandLine);
+            getLogger().lifecycle("Dependent projects run if the public API of the changed project changed: {}", dependentsByChangedProject);
+        }
+
+        if (!project.shouldUseCommandLine()) {
+            Set<Task> classesTasks = propagatingProjects.stream()
+                    .map(abiFingerprintProvider::getClassesTask)
+                    .flatMap(Optional::stream)
+                    .collect(Collectors.toSet());
+            task.dependsOn(classesTasks);
+            //The classes must be compiled before any of the tasks checks whether it should run
+            for (Project p : getRootProject().getAllprojects()) {
+                for (String taskName : getTaskRoutingProvider().getAllTasks()) {
+                    Task otherTask = p.getTasks().findByPath(getPathToTask(p, taskName));
+                    if (otherTask != null) {
+                        otherTask.mustRunAfter(classesTasks);
+                    }
+                }
+            }
+            task.doLast(t -> abiFingerprintProvider.storeFingerprints(propagatingProjects));
+        }
+    }
+
+    /**
+     * Gets the time the next Gradle process may run.
+     * @param processTimeout the time each process may run or null if there is no limit
+     * @param deadline the deadline of the total time budget as given by {@link System#nanoTime()}, or zero if there is none
+     * @return the time or null if there is no limit, which is negative if the total time budget has been used
+     */
+    private static Duration getProcessTimeout(Duration processTimeout, long deadline) {
+        if (deadline == 0) {
+            return processTimeout;
+        }
+        Duration remaining = Duration.ofNanos(deadline - System.nanoTime());
+        if (remaining.isNegative() || remaining.isZero()) {
+            return Duration.ofNanos(-1);
+        }
+        return processTimeout == null || remaining.compareTo(processTimeout) < 0 ? remaining : processTimeout;
+    }
+
+    private ProcessScheduler createProcessScheduler(int maxParallel) {
+        //Each process starts its own JVMs, so both the number of processes and their memory are limited
+        Integer configuredBudget = extension.getProcessMemoryBudget().getOrNull();
+        long memoryBudget = configuredBudget != null ? configuredBudget : ProcessScheduler.getAvailableMemory();
+        if (extension.shouldLog()) {
+            getLogger().lifecycle("Running at most {} processes at a time within {} MB of memory", maxParallel, memoryBudget);
+        }
+        return new ProcessScheduler(maxParallel, memoryBudget);
+    }
+
+    private ProcessJob createProcessJob(Project affected, Set<String> tasksToRun) {
+        String tasks = getCommandLineTasks(affected, tasksToRun);
+        String commandLine = String.format("%s %s %s", getGradleWrapper(), tasks, project.getCommandLineArgs());
+        return new ProcessJob(affected.getPath(), tasks, commandLine, getRootProject().getProjectDir(), extension.getProcessMemoryHint(affected));
+    }
+
+    /**
+     * Creates the process building the jars of the projects that more than one of the processes of a phase depends on,
+     * which must be run before them, as Gradle processes sharing the workspace do not coordinate writing the outputs of the same tasks.
+     * @param affectedProjects the projects of the processes of the phase
+     * @return the process or empty if the processes do not share any project with a jar
+     */
+    private Optional<ProcessJob> createSharedDependenciesJob(Set<Project> affectedProjects) {
+        if (affectedProjects.size() < 2) {
+            return Optional.empty();
+        }
+        ProjectDependencyProvider projectDependencyProvider = getProjectDependencyProvider();
+        Map<Project, Integer> usages = new HashMap<>();
+        for (Project affected : affectedProjects) {
+            //The project of the process counts as well, as it is also built by the processes of the projects depending on it
+            usages.merge(affected, 1, Integer::sum);
+            projectDependencyProvider.getDependencyProjects(affected).forEach(dependency -> usages.merge(dependency, 1, Integer::sum));
+        }
+        String tasks = usages.entrySet().stream()
+                .filter(entry -> entry.getValue() > 1)
+                .map(entry -> entry.getKey().getTasks().findByName(JavaPlugin.JAR_TASK_NAME))
+                .filter(Objects::nonNull)
+                .map(Task::getPath)
+                .sorted()
+                .collect(Collectors.joining(" "));
+        if (tasks.isEmpty()) {
+            return Optional.empty();
         }
-        LoggingOutputStream stdout = new LoggingOutputStream(project.getLogger()::lifecycle);
-        LoggingOutputStream stderr = new LoggingOutputStream(project.getLogger()::error);
+        String commandLine = String.format("%s %s %s", getGradleWrapper(), tasks, project.getCommandLineArgs());
+        return Optional.of(new ProcessJob(SHARED_DEPENDENCIES_JOB, tasks, commandLine, getRootProject().getProjectDir(), extension.getProcessMemoryHint(getRootProject())));
+    }
+
+    private String getCommandLineTasks(Project affected, Set<String> tasksToRun) {
+        String tasks = tasksToRun.stream()
+                .map(taskName -> getPathToTask(affected, taskName))
+                .collect(Collectors.joining(" "));
+        if (dependentsByChangedProject.containsKey(affected)) {
+            //The classes are needed to check whether the public API changed, even if the task to run does not compile them
+            Optional<Task> classesTask = abiFingerprintProvider.getClassesTask(affected);
+            if (classesTask.isPresent()) {
+                tasks = String.format("%s %s", tasks, classesTask.get().getPath());
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * Runs the tasks of the project in a new Gradle process.
+     * This is called from the threads of the scheduler, so it must not read the Gradle model.
+     * @param job the process to start
+     * @param timeout the time the process may run or null if there is no limit
+     * @param outputMultiplexer receives the output of the process
+     * @param logger the logger to report the process to
+     * @param debugLogging whether the command line is logged
+     * @return true if the process completed and false if it was killed because it ran out of time
+     */
+    @SneakyThrows
+    private static boolean runCommandLineOnProject(ProcessJob job, Duration timeout, OutputMultiplexer outputMultiplexer, Logger logger, boolean debugLogging) {
+        String tasks = job.getTasks();
+        if (debugLogging) {
+            logger.lifecycle("Running {}", job.getCommandLine());
+        }
+        ProcessOutput output = outputMultiplexer.open(job.getProjectPath());
         //We use Apache Commons Exec because we do not want to re-invent the wheel as ProcessBuilder hangs if the output or error buffer is full
         DefaultExecutor exec = new DefaultExecutor();
-        exec.setStreamHandler(new PumpStreamHandler(stdout, stderr));
-        exec.setWorkingDirectory(project.getRootProject().getProjectDir());
-        int exitValue = exec.execute(CommandLine.parse(commandLine));
+        exec.setStreamHandler(new PumpStreamHandler(output.getStdout(), output.getStderr()));
+        exec.setWorkingDirectory(job.getWorkingDir());
+        ProcessTreeWatchdog watchdog = new ProcessTreeWatchdog(timeout);
+        exec.setWatchdog(watchdog);
+        ChildProcessEvent event = new ChildProcessEvent();
+        event.begin();
+        //Stays -1 if the process could not be started
+        int exitValue = -1;
+        try {
+            exitValue = exec.execute(CommandLine.parse(job.getCommandLine()));
+        } catch (ExecuteException e) {
+            //The executor throws for any exit value other than zero, but we still want to record it
+            exitValue = e.getExitValue();
+            if (!watchdog.killedProcess()) {
+                throw e;
+            }
+        } finally {
+            output.finish(exitValue != 0);
+            event.end();
+            if (event.shouldCommit()) {
+                event.project = job.getProjectPath();
+                event.taskPaths = tasks;
+                event.exitCode = exitValue;
+                event.timedOut = watchdog.killedProcess();
+                event.commit();
+            }
+        }
 
+        if (watchdog.killedProcess()) {
+            logger.error("Running {} was killed because it timed out after {}", tasks, timeout);
+            return false;
+        }
         if (exitValue != 0) {
             throw new IllegalStateException("Executing command failed");
         }
+        return true;
     }
 
-    private String getGradleWrapper() {
+    private static String getGradleWrapper() {
         if (System.getProperty("os.name").startsWith("Windows")) {
             return "gradlew.bat";
         } else {
@@ -163,10 +583,15 @@ public class ChangedProjectsTask {
         }
     }
 
-    private Set<Project> evaluateDirectAffectedProjects(ChangedFilesProvider changedFilesProvider, ProjectDependencyProvider projectDependencyProvider) {
-        return changedFilesProvider.getChangedFiles().stream()
-                .map(projectDependencyProvider::getChangedProject)
-                .filter(Objects::nonNull)
+    private Map<Project, DirectChanges> evaluateDirectAffectedProjects(ChangedPaths changedPaths, ProjectDependencyProvider projectDependencyProvider) {
+        return new ChangedPathClassifier(projectDependencyProvider, getTaskRoutingProvider(), getLogger(), extension.shouldLog())
+                .classify(changedPaths);
+    }
+
+    private Set<Project> getPropagatingProjects(Map<Project, DirectChanges> directlyAffected) {
+        return directlyAffected.entrySet().stream()
+                .filter(entry -> entry.getValue().isPropagating())
+                .map(Map.Entry::getKey)
                 .collect(Collectors.toSet());
     }
 
@@ -188,6 +613,33 @@ public class ChangedProjectsTask {
         }
     }
 
+    private ProjectDependencyProvider getProjectDependencyProvider() {
+        //Created lazily, as it is not needed if all projects are affected, but when watching it is built once and then reused
+        if (projectDependencyProvider == null) {
+            projectDependencyProvider = new ProjectDependencyProvider(getRootProject(), extension);
+            projectDependencyProvider.printDebug(getLogger());
+        }
+        return projectDependencyProvider;
+    }
+
+    private OutputMultiplexer getOutputMultiplexer() {
+        //Created lazily, as it is only needed when running using the commandline, always from the thread configuring the build
+        if (outputMultiplexer == null) {
+            File logDir = getRootProject().getLayout().getBuildDirectory().dir(PROCESS_LOG_DIR).get().getAsFile();
+            outputMultiplexer = new OutputMultiplexer(getLogger(), extension.getProcessOutputMode(), extension.getProcessOutputBufferLines(), logDir);
+        }
+        return outputMultiplexer;
+    }
+
+    private TaskRoutingProvider getTaskRoutingProvider() {
+        //Created lazily, as the tasks are needed both when configuring the projects and when evaluating the changes
+        if (taskRoutingProvider == null) {
+            taskRoutingProvider = new TaskRoutingProvider(getRootProject(), extension);
+            taskRoutingProvider.printDebug(getLogger());
+        }
+        return taskRoutingProvider;
+    }
+
     private Project getRootProject() {
         return project.getRootProject();
     }
@@ -200,8 +652,7 @@ public class ChangedProjectsTask {
         return project.getLogger();
     }
 
-    private String getPathToTask(Project project) {
-        String taskToRun = project.getTaskToRun(extension);
+    private String getPathToTask(Project project, String taskToRun) {
         if (project.isRootProject()) {
             return String.format(":%s", taskToRun);
         } else {
@@ -0,0 +1,147 @@
+package io.github.crimix.changedprojectstask.task;
+
+import io.github.crimix.changedprojectstask.extensions.Extensions;
+import lombok.SneakyThrows;
+import lombok.experimental.ExtensionMethod;
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Watches the project tree for changed files and reports them in batches as paths relative to the git root.
+ * A batch is only reported when no new changes have been seen for a short quiet period,
+ * such that saving multiple files or a burst of keystrokes only results in a single batch.
+ */
+@ExtensionMethod(Extensions.class)
+public class ChangedProjectsWatcher {
+
+    private static final long QUIET_PERIOD_MILLIS = 500;
+    private static final Set<String> EXCLUDED_DIR_NAMES = Set.of(".git", ".gradle");
+
+    private final Path rootDir;
+    private final Path gitRoot;
+    private final Set<Path> excludedDirs;
+    private final Logger logger;
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+
+    public ChangedProjectsWatcher(Project project) {
+        this.rootDir = project.getRootProject().getCanonicalProjectPath();
+        this.gitRoot = project.getWorkspaceRootDir().getCanonicalFilePath();
+        //The build directories are excluded as the tasks we run writes to them, which would otherwise cause an endless loop of runs
+        this.excludedDirs = project.getRootProject().getAllprojects().stream()
+                .map(p -> p.getLayout().getBuildDirectory().get().getAsFile())
+                .map(Extensions::getCanonicalFilePath)
+                .collect(Collectors.toSet());
+        this.logger = project.getLogger();
+    }
+
+    /**
+     * Watches the project tree until the thread is interrupted.
+     * @param onChanges the consumer that is given each batch of changed paths relative to the git root using / as separator
+     */
+    @SneakyThrows(IOException.class)
+    public void watch(Consumer<List<String>> onChanges) {
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            registerRecursively(watchService, rootDir);
+            logger.lifecycle("Watching {} for changes", rootDir);
+            while (!Thread.currentThread().isInterrupted()) {
+                Set<Path> changes = new LinkedHashSet<>();
+                WatchKey key = watchService.take();
+                //Keep collecting until the file system has been quiet for a while
+                while (key != null) {
+                    collectChanges(watchService, key, changes);
+                    key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (!changes.isEmpty()) {
+                    onChanges.accept(changes.stream()
+                            .map(this::toGitPath)
+                            .collect(Collectors.toList()));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void collectChanges(WatchService watchService, WatchKey key, Set<Path> changes) throws IOException {
+        Path dir = watchedDirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                logger.warn("Too many changes at once, some changes might not have been seen");
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (isExcluded(path)) {
+                continue;
+            }
+            if (Files.isDirectory(path)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    //A new directory might have been created together with files, so we report those as well
+                    registerRecursively(watchService, path);
+                    try (Stream<Path> files = Files.walk(path)) {
+                        files.filter(Files::isRegularFile)
+                                .filter(p -> !isExcluded(p))
+                                .forEach(changes::add);
+                    }
+                }
+            } else {
+                changes.add(path);
+            }
+        }
+        if (!key.reset()) {
+            watchedDirs.remove(key);
+        }
+    }
+
+    private void registerRecursively(WatchService watchService, Path start) throws IOException {
+        List<Path> dirs = new ArrayList<>();
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (isExcluded(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                dirs.add(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        for (Path dir : dirs) {
+            WatchKey key = dir.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            watchedDirs.put(key, dir);
+        }
+    }
+
+    private boolean isExcluded(Path path) {
+        Path fileName = path.getFileName();
+        return (fileName != null && EXCLUDED_DIR_NAMES.contains(fileName.toString())) || excludedDirs.contains(path);
+    }
+
+    private String toGitPath(Path path) {
+        return gitRoot.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+}
@@ -0,0 +1,55 @@
+package io.github.crimix.changedprojectstask.task;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The changes to a project that has been directly affected by changed files.
+ * The getters are auto-generated by Lombok
+ */
+@Data
+public class DirectChanges {
+    /**
+     * The most changed files kept for explaining why a project was selected
+     */
+    public static final int MAX_SAMPLE_FILES = 20;
+
+    /**
+     * Whether any of the changes can be observed by the projects depending on the project
+     */
+    private final boolean propagating;
+
+    /**
+     * The names of the tasks the changed files of the project should run
+     */
+    private final Set<String> tasks;
+
+    /**
+     * The number of changed files belonging to the project
+     */
+    private final int changedFiles;
+
+    /**
+     * Some of the changed files belonging to the project, at most {@link #MAX_SAMPLE_FILES}
+     */
+    private final List<String> sampleFiles;
+
+    /**
+     * Combines the changes of two files belonging to the same project.
+     * @param other the other changes
+     * @return the combined changes
+     */
+    public DirectChanges merge(DirectChanges other) {
+        Set<String> mergedTasks = new HashSet<>(tasks);
+        mergedTasks.addAll(other.getTasks());
+        List<String> mergedSampleFiles = new ArrayList<>(sampleFiles);
+        other.getSampleFiles().stream()
+                .limit(Math.max(0, MAX_SAMPLE_FILES - mergedSampleFiles.size()))
+                .forEach(mergedSampleFiles::add);
+        return new DirectChanges(propagating || other.isPropagating(), mergedTasks, changedFiles + other.getChangedFiles(), mergedSampleFiles);
+    }
+}
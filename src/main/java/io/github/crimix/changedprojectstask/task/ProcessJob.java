@@ -0,0 +1,39 @@
+package io.github.crimix.changedprojectstask.task;
+
+import lombok.Data;
+
+import java.io.File;
+
+/**
+ * A Gradle process to start for an affected project.
+ * Everything is resolved from the Gradle model up front, as the processes are started from the threads of the {@link ProcessScheduler}.
+ * The getters are auto-generated by Lombok
+ */
+@Data
+public class ProcessJob {
+
+    /**
+     * The path of the affected project
+     */
+    private final String projectPath;
+
+    /**
+     * The paths of the tasks to run separated by spaces
+     */
+    private final String tasks;
+
+    /**
+     * The full command line starting the Gradle process
+     */
+    private final String commandLine;
+
+    /**
+     * The directory the process is started in
+     */
+    private final File workingDir;
+
+    /**
+     * The memory in megabytes the process is expected to use
+     */
+    private final long memory;
+}
@@ -0,0 +1,66 @@
+package io.github.crimix.changedprojectstask.task;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+/**
+ * Decides the tasks the Gradle process of each project runs in each phase of a run using the commandline.
+ * When the public API of the directly changed projects decides whether their dependents run, the first phase holds the directly changed projects,
+ * and their tasks are decided without checking the public API, as it cannot be known before their own processes have compiled their classes.
+ * A directly changed project that turns out to depend on another directly changed project which public API changed,
+ * gets the tasks it did not run yet in the next phase.
+ * @param <T> the type of the projects
+ */
+public class ProcessPhasePlanner<T> {
+
+    private final List<List<T>> phases;
+    private final boolean deferAbiCheck;
+    private final BiFunction<T, Boolean, Set<String>> tasksToRun;
+    private final Map<T, Set<String>> plannedTasks = new HashMap<>();
+
+    /**
+     * Creates the planner.
+     * @param phases the projects of each phase in the order they should preferably be started
+     * @param deferAbiCheck whether the public API must not be checked before the first phase is done
+     * @param tasksToRun gets the tasks of a project, where the flag tells whether the public API of the changed projects may be checked
+     */
+    public ProcessPhasePlanner(List<List<T>> phases, boolean deferAbiCheck, BiFunction<T, Boolean, Set<String>> tasksToRun) {
+        this.phases = phases;
+        this.deferAbiCheck = deferAbiCheck;
+        this.tasksToRun = tasksToRun;
+    }
+
+    /**
+     * Gets the tasks to run in the phase, which must only be called once the earlier phases are done.
+     * Tasks that were planned for a project in an earlier phase are not planned again.
+     * @param phase the index of the phase
+     * @return the tasks of each project to run in the phase, leaving out the projects with nothing to run
+     */
+    public Map<T, Set<String>> plan(int phase) {
+        boolean checkAbi = !deferAbiCheck || phase > 0;
+        List<T> projects = new ArrayList<>();
+        if (deferAbiCheck && phase > 0) {
+            //The first phase is checked again now that the public API of its projects is known
+            projects.addAll(phases.get(0));
+        }
+        projects.addAll(phases.get(phase));
+
+        Map<T, Set<String>> result = new LinkedHashMap<>();
+        for (T project : projects) {
+            Set<String> tasks = new LinkedHashSet<>(tasksToRun.apply(project, checkAbi));
+            Set<String> planned = plannedTasks.computeIfAbsent(project, k -> new LinkedHashSet<>());
+            tasks.removeAll(planned);
+            if (!tasks.isEmpty()) {
+                planned.addAll(tasks);
+                result.put(project, tasks);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,169 @@
+package io.github.crimix.changedprojectstask.task;
+
+import lombok.SneakyThrows;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+/**
+ * Runs jobs that each start their own processes, like the Gradle builds of the affected projects, as many at a time as the machine can handle.
+ * A job is only started when there are fewer than the maximum number of jobs running and its memory fits within what is left of the memory budget,
+ * the rest are queued. A job that does not fit lets the jobs behind it that do fit start first, such that the slots are not left unused,
+ * but a job is always started when nothing else is running, no matter its memory.
+ */
+public class ProcessScheduler {
+
+    private static final long MEGABYTE = 1024 * 1024;
+    private static final String MEM_INFO_FILE = "/proc/meminfo";
+    private static final String MEM_AVAILABLE = "MemAvailable:";
+
+    private final int maxParallel;
+    private final long memoryBudget;
+    private final Object lock = new Object();
+    private int running;
+    private long reservedMemory;
+    private Throwable failure;
+
+    /**
+     * Creates the scheduler.
+     * @param maxParallel the maximum number of jobs running at the same time
+     * @param memoryBudget the memory in megabytes all running jobs may use together
+     */
+    public ProcessScheduler(int maxParallel, long memoryBudget) {
+        this.maxParallel = maxParallel;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Gets the physical memory of the machine that can be given to new processes without swapping, which is what the processes of the jobs can use.
+     * It is sampled once before the jobs are started, as the memory of the running jobs is accounted for by their reservations.
+     * @return the available memory in megabytes or {@link Long#MAX_VALUE} if it is not known
+     */
+    public static long getAvailableMemory() {
+        //The free memory does not include the page cache the kernel reclaims when needed, which is most of the memory of a machine that has been building for a while
+        Long available = readMemAvailable();
+        if (available != null) {
+            return available;
+        }
+        OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) bean).getFreePhysicalMemorySize() / MEGABYTE;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private static Long readMemAvailable() {
+        Path memInfo = Paths.get(MEM_INFO_FILE);
+        if (!Files.isReadable(memInfo)) {
+            return null;
+        }
+        try (Stream<String> lines = Files.lines(memInfo)) {
+            //The line looks like "MemAvailable:   12345678 kB"
+            return lines.filter(line -> line.startsWith(MEM_AVAILABLE))
+                    .map(line -> line.substring(MEM_AVAILABLE.length()).replace("kB", "").trim())
+                    .map(kilobytes -> Long.parseLong(kilobytes) / 1024)
+                    .findFirst()
+                    .orElse(null);
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Runs the jobs and waits for all started jobs to complete.
+     * When a job fails no more jobs are started, and the failure is thrown once the running jobs are done.
+     * @param jobs the jobs in the order they should preferably be started
+     * @param memory the memory in megabytes each job is expected to use
+     * @param action runs a job
+     * @param <T> the type of the jobs
+     */
+    @SneakyThrows
+    public <T> void run(List<T> jobs, ToLongFunction<T> memory, Consumer<T> action) {
+        if (jobs.isEmpty()) {
+            return;
+        }
+        synchronized (lock) {
+            failure = null;
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxParallel, jobs.size()), runnable -> {
+            Thread thread = new Thread(runnable, "changed-projects-process-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<T> queue = new LinkedList<>(jobs);
+            synchronized (lock) {
+                while (!queue.isEmpty() && failure == null) {
+                    T job = takeAdmissible(queue, memory);
+                    if (job == null) {
+                        lock.wait();
+                        continue;
+                    }
+                    long jobMemory = memory.applyAsLong(job);
+                    running++;
+                    reservedMemory += jobMemory;
+                    executor.execute(() -> runJob(job, jobMemory, action));
+                }
+                while (running > 0) {
+                    lock.wait();
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        synchronized (lock) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private <T> T takeAdmissible(List<T> queue, ToLongFunction<T> memory) {
+        if (running >= maxParallel) {
+            return null;
+        }
+        for (Iterator<T> iterator = queue.iterator(); iterator.hasNext(); ) {
+            T job = iterator.next();
+            if (running == 0 || reservedMemory + memory.applyAsLong(job) <= memoryBudget) {
+                iterator.remove();
+                return job;
+            }
+        }
+        return null;
+    }
+
+    private <T> void runJob(T job, long jobMemory, Consumer<T> action) {
+        Throwable jobFailure = null;
+        try {
+            action.accept(job);
+        } catch (Throwable t) {
+            jobFailure = t;
+        }
+        synchronized (lock) {
+            if (jobFailure != null) {
+                if (failure == null) {
+                    failure = jobFailure;
+                } else {
+                    failure.addSuppressed(jobFailure);
+                }
+            }
+            running--;
+            reservedMemory -= jobMemory;
+            lock.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package io.github.crimix.changedprojectstask.task;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * A reason for a project being selected to run.
+ * The getters are auto-generated by Lombok
+ */
+@Data
+public class SelectionReason {
+
+    public enum Type {
+        CHANGED_FILES,
+        DEPENDENCY,
+        ABI_DEPENDENCY,
+        ALWAYS_RUN,
+        AFFECTS_ALL
+    }
+
+    private final Type type;
+
+    /**
+     * A human-readable explanation of the reason
+     */
+    private final String description;
+
+    /**
+     * The files, patterns or project paths behind the reason, depending on the type
+     */
+    private final List<String> items;
+}
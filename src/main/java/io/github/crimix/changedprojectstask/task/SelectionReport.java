@@ -0,0 +1,211 @@
+package io.github.crimix.changedprojectstask.task;
+
+import org.gradle.api.Project;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Collects why each project was selected to run, such that over-selection can be traced back to the rules and dependencies causing it.
+ * The reasons are added while the projects are selected using what has already been computed, so nothing is evaluated again for the report.
+ * The report is written as both JSON for tooling and HTML for reading.
+ */
+public class SelectionReport {
+
+    public static final String JSON_FILE = "selection.json";
+    public static final String HTML_FILE = "selection.html";
+
+    private final String range;
+    private final int changedFiles;
+    //Sorted by project path, such that reports of different runs can be compared
+    private final Map<String, List<SelectionReason>> reasonsByProject = new TreeMap<>();
+    private final Set<String> excludedProjects = new TreeSet<>();
+
+    /**
+     * Creates the report.
+     * @param range the compared commits
+     * @param changedFiles the number of changed files that were not ignored
+     */
+    public SelectionReport(String range, int changedFiles) {
+        this.range = range;
+        this.changedFiles = changedFiles;
+    }
+
+    /**
+     * Adds a project with changed files belonging to it.
+     * @param project the changed project
+     * @param changes the changes of the project
+     */
+    public void addChangedFiles(Project project, DirectChanges changes) {
+        String description = changes.getChangedFiles() > changes.getSampleFiles().size()
+                ? String.format("%d changed files, the first %d are listed", changes.getChangedFiles(), changes.getSampleFiles().size())
+                : String.format("%d changed files", changes.getChangedFiles());
+        add(project, new SelectionReason(SelectionReason.Type.CHANGED_FILES, description, changes.getSampleFiles()));
+    }
+
+    /**
+     * Adds a project affected through its dependencies.
+     * @param project the dependent project
+     * @param path the shortest dependency path starting with the changed project and ending with the dependent project
+     */
+    public void addDependency(Project project, List<Project> path) {
+        String description = String.format("Depends on the changed project %s", path.get(0).getPath());
+        add(project, new SelectionReason(SelectionReason.Type.DEPENDENCY, description, toPaths(path)));
+    }
+
+    /**
+     * Adds a project that is only run if the public API of the changed project changed.
+     * @param project the dependent project
+     * @param path the shortest dependency path starting with the changed project and ending with the dependent project
+     */
+    public void addAbiDependency(Project project, List<Project> path) {
+        String description = String.format("Runs if the public API of %s changed", path.get(0).getPath());
+        add(project, new SelectionReason(SelectionReason.Type.ABI_DEPENDENCY, description, toPaths(path)));
+    }
+
+    public void addAlwaysRun(Project project) {
+        add(project, new SelectionReason(SelectionReason.Type.ALWAYS_RUN, "Configured in alwaysRunProject", Collections.emptyList()));
+    }
+
+    /**
+     * Adds a project affected because a changed file affects all projects.
+     * @param project the project
+     * @param file the changed file
+     * @param patterns the affectsAllRegex patterns matching the file
+     */
+    public void addAffectsAll(Project project, String file, List<String> patterns) {
+        String description = String.format("%s matches affectsAllRegex %s", file, patterns);
+        add(project, new SelectionReason(SelectionReason.Type.AFFECTS_ALL, description, Collections.singletonList(file)));
+    }
+
+    /**
+     * Marks the project as not run even though it has reasons to run.
+     * @param project the project configured in neverRunProject
+     */
+    public void addExcluded(Project project) {
+        excludedProjects.add(project.getPath());
+    }
+
+    /**
+     * Writes the report to the directory, replacing any earlier report.
+     * @param dir the directory to write to
+     * @throws IOException if the report could not be written
+     */
+    public void write(File dir) throws IOException {
+        Files.createDirectories(dir.toPath());
+        try (Writer writer = Files.newBufferedWriter(new File(dir, JSON_FILE).toPath(), StandardCharsets.UTF_8)) {
+            writeJson(writer);
+        }
+        try (Writer writer = Files.newBufferedWriter(new File(dir, HTML_FILE).toPath(), StandardCharsets.UTF_8)) {
+            writeHtml(writer);
+        }
+    }
+
+    private void add(Project project, SelectionReason reason) {
+        reasonsByProject.computeIfAbsent(project.getPath(), k -> new ArrayList<>()).add(reason);
+    }
+
+    private void writeJson(Writer writer) throws IOException {
+        writer.write("{\n");
+        writer.write(String.format("  \"range\": %s,\n", toJson(range)));
+        writer.write(String.format("  \"changedFiles\": %d,\n", changedFiles));
+        writer.write("  \"projects\": [");
+        String projectSeparator = "\n";
+        for (Map.Entry<String, List<SelectionReason>> entry : reasonsByProject.entrySet()) {
+            writer.write(projectSeparator);
+            writer.write(String.format("    {\n      \"path\": %s,\n      \"selected\": %b,\n      \"reasons\": [",
+                    toJson(entry.getKey()), !excludedProjects.contains(entry.getKey())));
+            String reasonSeparator = "\n";
+            for (SelectionReason reason : entry.getValue()) {
+                writer.write(reasonSeparator);
+                writer.write(String.format("        { \"type\": %s, \"description\": %s, \"items\": [%s] }",
+                        toJson(reason.getType().name()),
+                        toJson(reason.getDescription()),
+                        reason.getItems().stream().map(SelectionReport::toJson).collect(Collectors.joining(", "))));
+                reasonSeparator = ",\n";
+            }
+            writer.write("\n      ]\n    }");
+            projectSeparator = ",\n";
+        }
+        writer.write("\n  ]\n}\n");
+    }
+
+    private void writeHtml(Writer writer) throws IOException {
+        writer.write("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n<title>Changed projects selection</title>\n");
+        writer.write("<style>body{font-family:sans-serif}table{border-collapse:collapse}td,th{border:1px solid #ccc;padding:4px;vertical-align:top;text-align:left}.excluded{color:#888}</style>\n");
+        writer.write("</head>\n<body>\n");
+        writer.write(String.format("<h1>Changed projects selection</h1>\n<p>Compared %s with %d changed files, %d projects have reasons to run.</p>\n",
+                toHtml(range), changedFiles, reasonsByProject.size()));
+        writer.write("<table>\n<tr><th>Project</th><th>Reason</th><th>Details</th></tr>\n");
+        for (Map.Entry<String, List<SelectionReason>> entry : reasonsByProject.entrySet()) {
+            boolean excluded = excludedProjects.contains(entry.getKey());
+            String name = excluded ? toHtml(entry.getKey()) + " (neverRunProject)" : toHtml(entry.getKey());
+            String rowClass = excluded ? " class=\"excluded\"" : "";
+            for (SelectionReason reason : entry.getValue()) {
+                writer.write(String.format("<tr%s><td>%s</td><td>%s</td><td>%s",
+                        rowClass, name, toHtml(reason.getType().name()), toHtml(reason.getDescription())));
+                if (!reason.getItems().isEmpty()) {
+                    writer.write(reason.getItems().stream()
+                            .map(SelectionReport::toHtml)
+                            .collect(Collectors.joining("<br>", "<br><code>", "</code>")));
+                }
+                writer.write("</td></tr>\n");
+            }
+        }
+        writer.write("</table>\n</body>\n</html>\n");
+    }
+
+    private static List<String> toPaths(List<Project> projects) {
+        return projects.stream()
+                .map(Project::getPath)
+                .collect(Collectors.toList());
+    }
+
+    private static String toJson(String value) {
+        StringBuilder result = new StringBuilder(value.length() + 2).append('"');
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"':
+                    result.append("\\\"");
+                    break;
+                case '\\':
+                    result.append("\\\\");
+                    break;
+                case '\n':
+                    result.append("\\n");
+                    break;
+                case '\r':
+                    result.append("\\r");
+                    break;
+                case '\t':
+                    result.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        result.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        result.append(c);
+                    }
+            }
+        }
+        return result.append('"').toString();
+    }
+
+    private static String toHtml(String value) {
+        return value.replace("&", "&amp;")
+                .replace("<", "&lt;")
+                .replace(">", "&gt;")
+                .replace("\"", "&quot;");
+    }
+}
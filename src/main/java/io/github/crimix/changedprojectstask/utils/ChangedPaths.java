@@ -0,0 +1,158 @@
+package io.github.crimix.changedprojectstask.utils;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact read-only list of changed paths relative to the git root.
+ * Big diffs contain a lot of paths sharing the same directories and names, so instead of keeping every path as a string,
+ * the path segments are interned and the directories are stored once as a tree, which each path points into.
+ * Everything is kept in arrays, such that a path only costs two ints no matter its length.
+ * The path strings are created when they are read, so they should not be kept around by the caller.
+ */
+public class ChangedPaths extends AbstractList<String> {
+
+    private static final int ROOT_DIRECTORY = 0;
+
+    private final String[] segments;
+    private final int[] directoryParents;
+    private final int[] directoryNames;
+    private final int[] fileDirectories;
+    private final int[] fileNames;
+    //Built on first use, this is safe to share between threads as the same immutable string is always written
+    private final String[] directoryPaths;
+
+    private ChangedPaths(Builder builder) {
+        this.segments = builder.segments.keySet().toArray(new String[0]);
+        builder.segments.forEach((segment, id) -> segments[id] = segment);
+        this.directoryParents = Arrays.copyOf(builder.directoryParents, builder.directoryCount);
+        this.directoryNames = Arrays.copyOf(builder.directoryNames, builder.directoryCount);
+        this.fileDirectories = Arrays.copyOf(builder.fileDirectories, builder.fileCount);
+        this.fileNames = Arrays.copyOf(builder.fileNames, builder.fileCount);
+        this.directoryPaths = new String[builder.directoryCount];
+    }
+
+    /**
+     * Creates the changed paths from the list of paths.
+     * @param paths the paths relative to the git root using / as separator
+     * @return the changed paths
+     */
+    public static ChangedPaths of(List<String> paths) {
+        Builder builder = builder();
+        paths.forEach(builder::add);
+        return builder.build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public String get(int index) {
+        String directory = getDirectoryPath(fileDirectories[index]);
+        String name = segments[fileNames[index]];
+        return directory.isEmpty() ? name : directory + "/" + name;
+    }
+
+    @Override
+    public int size() {
+        return fileDirectories.length;
+    }
+
+    /**
+     * Gets the directory of the path, which is shared by all paths in the same directory.
+     * @param index the index of the path
+     * @return the directory relative to the git root or an empty string if the path is in the git root
+     */
+    public String getDirectory(int index) {
+        return getDirectoryPath(fileDirectories[index]);
+    }
+
+    private String getDirectoryPath(int directory) {
+        String path = directoryPaths[directory];
+        if (path == null) {
+            if (directory == ROOT_DIRECTORY) {
+                path = "";
+            } else {
+                String parent = getDirectoryPath(directoryParents[directory]);
+                String name = segments[directoryNames[directory]];
+                path = parent.isEmpty() ? name : parent + "/" + name;
+            }
+            directoryPaths[directory] = path;
+        }
+        return path;
+    }
+
+    /**
+     * Builds the changed paths one path at a time, such that the paths never have to be collected as strings first.
+     */
+    public static class Builder {
+        private final Map<String, Integer> segments = new HashMap<>();
+        //The directory id of each parent and name pair, the parent is in the upper half of the key and the name in the lower
+        private final Map<Long, Integer> directories = new HashMap<>();
+        private int[] directoryParents = new int[16];
+        private int[] directoryNames = new int[16];
+        private int directoryCount;
+        private int[] fileDirectories = new int[16];
+        private int[] fileNames = new int[16];
+        private int fileCount;
+
+        private Builder() {
+            //The root directory has no name and no parent
+            addDirectory(-1, -1);
+        }
+
+        /**
+         * Adds the path.
+         * @param path the path relative to the git root using / as separator
+         * @return this builder
+         */
+        public Builder add(String path) {
+            int directory = ROOT_DIRECTORY;
+            int start = 0;
+            int end = path.indexOf('/');
+            while (end >= 0) {
+                if (end > start) {
+                    directory = getDirectory(directory, intern(path.substring(start, end)));
+                }
+                start = end + 1;
+                end = path.indexOf('/', start);
+            }
+            if (fileCount == fileDirectories.length) {
+                fileDirectories = Arrays.copyOf(fileDirectories, fileCount * 2);
+                fileNames = Arrays.copyOf(fileNames, fileCount * 2);
+            }
+            fileDirectories[fileCount] = directory;
+            fileNames[fileCount] = intern(path.substring(start));
+            fileCount++;
+            return this;
+        }
+
+        public ChangedPaths build() {
+            return new ChangedPaths(this);
+        }
+
+        private int intern(String segment) {
+            return segments.computeIfAbsent(segment, s -> segments.size());
+        }
+
+        private int getDirectory(int parent, int name) {
+            Integer directory = directories.get(((long) parent << 32) | name);
+            return directory != null ? directory : addDirectory(parent, name);
+        }
+
+        private int addDirectory(int parent, int name) {
+            if (directoryCount == directoryParents.length) {
+                directoryParents = Arrays.copyOf(directoryParents, directoryCount * 2);
+                directoryNames = Arrays.copyOf(directoryNames, directoryCount * 2);
+            }
+            directoryParents[directoryCount] = parent;
+            directoryNames[directoryCount] = name;
+            directories.put(((long) parent << 32) | name, directoryCount);
+            return directoryCount++;
+        }
+    }
+}
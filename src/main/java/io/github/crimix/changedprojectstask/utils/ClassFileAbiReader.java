@@ -0,0 +1,325 @@
+package io.github.crimix.changedprojectstask.utils;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the public API of a compiled class file, meaning the signatures of the class and its public and protected members including their annotations.
+ * Package private classes are read as well, as their public members are part of the API of the public classes extending them.
+ * Only the parts of the class file format needed for that are parsed, everything else is skipped.
+ */
+public class ClassFileAbiReader {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PROTECTED = 0x0004;
+    private static final int ACC_BRIDGE = 0x0040;
+    private static final int ACC_SYNTHETIC = 0x1000;
+    private static final int ACC_MODULE = 0x8000;
+
+    //The flags that consumers of the class can observe, for example synchronized and native are left out
+    private static final int CLASS_FLAGS = 0x0001 | 0x0010 | 0x0200 | 0x0400 | 0x2000 | 0x4000;
+    private static final int FIELD_FLAGS = 0x0001 | 0x0004 | 0x0008 | 0x0010;
+    private static final int METHOD_FLAGS = 0x0001 | 0x0004 | 0x0008 | 0x0010 | 0x0080 | 0x0400;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private ClassFileAbiReader() {
+    }
+
+    /**
+     * Reads the public API of the class file.
+     * @param inputStream the class file contents
+     * @return the signature lines of the class, or an empty list if the class is a module descriptor
+     * @throws IOException if the class file could not be read or is malformed
+     */
+    public static List<String> readAbi(InputStream inputStream) throws IOException {
+        DataInputStream in = new DataInputStream(inputStream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort(); //Minor version
+        in.readUnsignedShort(); //Major version
+        Object[] constantPool = readConstantPool(in);
+
+        int classAccess = in.readUnsignedShort();
+        String className = getClassName(constantPool, in.readUnsignedShort());
+        int superIndex = in.readUnsignedShort();
+        String superName = superIndex == 0 ? "" : getClassName(constantPool, superIndex);
+        List<String> interfaces = new ArrayList<>();
+        int interfaceCount = in.readUnsignedShort();
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaces.add(getClassName(constantPool, in.readUnsignedShort()));
+        }
+        //Module descriptors are not compiled against, and their requirements are already the dependencies between the projects
+        if ((classAccess & ACC_MODULE) != 0) {
+            return Collections.emptyList();
+        }
+
+        List<String> result = new ArrayList<>();
+        List<String> members = new ArrayList<>();
+        readMembers(in, constantPool, "field", FIELD_FLAGS, members);
+        readMembers(in, constantPool, "method", METHOD_FLAGS, members);
+        String classAttributes = readAttributes(in, constantPool);
+
+        result.add(String.format("class %s %d extends %s implements %s%s", className, classAccess & CLASS_FLAGS, superName, interfaces, classAttributes));
+        //The order of members in the class file does not affect consumers
+        Collections.sort(members);
+        for (String member : members) {
+            result.add(className + " " + member);
+        }
+        return result;
+    }
+
+    private static Object[] readConstantPool(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        Object[] pool = new Object[count];
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    pool[i] = in.readUTF();
+                    break;
+                case CONSTANT_INTEGER:
+                    pool[i] = in.readInt();
+                    break;
+                case CONSTANT_FLOAT:
+                    pool[i] = in.readFloat();
+                    break;
+                case CONSTANT_LONG:
+                    pool[i] = in.readLong();
+                    i++; //Long and double takes up two entries
+                    break;
+                case CONSTANT_DOUBLE:
+                    pool[i] = in.readDouble();
+                    i++; //Long and double takes up two entries
+                    break;
+                case CONSTANT_CLASS:
+                case CONSTANT_STRING:
+                    //We store the index as an int array to tell it apart from integer constants
+                    pool[i] = new int[]{in.readUnsignedShort()};
+                    break;
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    skip(in, 2);
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    skip(in, 3);
+                    break;
+                case 9: //Fieldref
+                case 10: //Methodref
+                case 11: //InterfaceMethodref
+                case 12: //NameAndType
+                case 17: //Dynamic
+                case 18: //InvokeDynamic
+                    skip(in, 4);
+                    break;
+                default:
+                    throw new IOException(String.format("Unknown constant pool tag %d", tag));
+            }
+        }
+        return pool;
+    }
+
+    private static void readMembers(DataInputStream in, Object[] constantPool, String kind, int flagsMask, List<String> members) throws IOException {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            int access = in.readUnsignedShort();
+            String name = getUtf8(constantPool, in.readUnsignedShort());
+            String descriptor = getUtf8(constantPool, in.readUnsignedShort());
+            String attributes = readAttributes(in, constantPool);
+            //Bridge methods are kept, as they expose the public methods of package private superclasses on the public classes extending them
+            boolean visible = (access & (ACC_PUBLIC | ACC_PROTECTED)) != 0 && ((access & ACC_SYNTHETIC) == 0 || (access & ACC_BRIDGE) != 0);
+            if (visible) {
+                members.add(String.format("%s %d %s %s%s", kind, access & flagsMask, name, descriptor, attributes));
+            }
+        }
+    }
+
+    private static String readAttributes(DataInputStream in, Object[] constantPool) throws IOException {
+        //Only the attributes that affects how consumers are compiled are kept, like generic signatures, inlined constants, checked exceptions and annotations
+        StringBuilder result = new StringBuilder();
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            String name = getUtf8(constantPool, in.readUnsignedShort());
+            int length = in.readInt();
+            switch (name) {
+                case "Signature":
+                    result.append(" signature ").append(getUtf8(constantPool, in.readUnsignedShort()));
+                    break;
+                case "ConstantValue":
+                    result.append(" value ").append(getConstant(constantPool, in.readUnsignedShort()));
+                    break;
+                case "Exceptions":
+                    int exceptionCount = in.readUnsignedShort();
+                    result.append(" throws");
+                    for (int j = 0; j < exceptionCount; j++) {
+                        result.append(' ').append(getClassName(constantPool, in.readUnsignedShort()));
+                    }
+                    break;
+                case "AnnotationDefault":
+                    result.append(" default ");
+                    readElementValue(in, constantPool, result);
+                    break;
+                case "RuntimeVisibleAnnotations":
+                case "RuntimeInvisibleAnnotations":
+                    result.append(' ').append(name);
+                    readAnnotations(in, constantPool, result);
+                    break;
+                case "RuntimeVisibleParameterAnnotations":
+                case "RuntimeInvisibleParameterAnnotations":
+                    result.append(' ').append(name);
+                    int parameterCount = in.readUnsignedByte();
+                    for (int j = 0; j < parameterCount; j++) {
+                        result.append(" ").append(j);
+                        readAnnotations(in, constantPool, result);
+                    }
+                    break;
+                case "RuntimeVisibleTypeAnnotations":
+                case "RuntimeInvisibleTypeAnnotations":
+                    result.append(' ').append(name);
+                    readTypeAnnotations(in, constantPool, result);
+                    break;
+                default:
+                    skip(in, length);
+            }
+        }
+        return result.toString();
+    }
+
+    private static void readAnnotations(DataInputStream in, Object[] constantPool, StringBuilder result) throws IOException {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            result.append(' ');
+            readAnnotation(in, constantPool, result);
+        }
+    }
+
+    private static void readAnnotation(DataInputStream in, Object[] constantPool, StringBuilder result) throws IOException {
+        result.append('@').append(getUtf8(constantPool, in.readUnsignedShort())).append('(');
+        int pairCount = in.readUnsignedShort();
+        for (int i = 0; i < pairCount; i++) {
+            if (i > 0) {
+                result.append(',');
+            }
+            result.append(getUtf8(constantPool, in.readUnsignedShort())).append('=');
+            readElementValue(in, constantPool, result);
+        }
+        result.append(')');
+    }
+
+    private static void readElementValue(DataInputStream in, Object[] constantPool, StringBuilder result) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case 'B':
+            case 'C':
+            case 'D':
+            case 'F':
+            case 'I':
+            case 'J':
+            case 'S':
+            case 'Z':
+            case 's':
+                result.append((char) tag).append(getConstant(constantPool, in.readUnsignedShort()));
+                break;
+            case 'e':
+                result.append(getUtf8(constantPool, in.readUnsignedShort())).append('.').append(getUtf8(constantPool, in.readUnsignedShort()));
+                break;
+            case 'c':
+                result.append(getUtf8(constantPool, in.readUnsignedShort())).append(".class");
+                break;
+            case '@':
+                readAnnotation(in, constantPool, result);
+                break;
+            case '[':
+                int count = in.readUnsignedShort();
+                result.append('{');
+                for (int i = 0; i < count; i++) {
+                    if (i > 0) {
+                        result.append(',');
+                    }
+                    readElementValue(in, constantPool, result);
+                }
+                result.append('}');
+                break;
+            default:
+                throw new IOException(String.format("Unknown annotation element tag %c", (char) tag));
+        }
+    }
+
+    private static void readTypeAnnotations(DataInputStream in, Object[] constantPool, StringBuilder result) throws IOException {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            //The target tells which type in the signature is annotated, its bytes only hold numbers so they are kept as they are
+            int targetType = in.readUnsignedByte();
+            result.append(' ').append(targetType).append(':');
+            int targetLength;
+            if (targetType <= 0x01 || targetType == 0x16) {
+                targetLength = 1;
+            } else if (targetType == 0x10 || targetType == 0x11 || targetType == 0x12 || targetType == 0x17) {
+                targetLength = 2;
+            } else if (targetType >= 0x13 && targetType <= 0x15) {
+                targetLength = 0;
+            } else {
+                //The other targets are only found inside method bodies, which are never read
+                throw new IOException(String.format("Unexpected type annotation target %d", targetType));
+            }
+            for (int j = 0; j < targetLength; j++) {
+                result.append(in.readUnsignedByte()).append('.');
+            }
+            int pathLength = in.readUnsignedByte();
+            for (int j = 0; j < pathLength; j++) {
+                result.append(in.readUnsignedByte()).append('/').append(in.readUnsignedByte()).append('.');
+            }
+            readAnnotation(in, constantPool, result);
+        }
+    }
+
+    private static void skip(DataInputStream in, int length) throws IOException {
+        //skipBytes only skips fewer bytes at the end of the stream, which means the class file is truncated
+        if (in.skipBytes(length) != length) {
+            throw new EOFException("The class file is truncated");
+        }
+    }
+
+    private static String getUtf8(Object[] constantPool, int index) throws IOException {
+        Object value = constantPool[index];
+        if (!(value instanceof String)) {
+            throw new IOException(String.format("Constant pool entry %d is not a string", index));
+        }
+        return (String) value;
+    }
+
+    private static String getClassName(Object[] constantPool, int index) throws IOException {
+        Object value = constantPool[index];
+        if (!(value instanceof int[])) {
+            throw new IOException(String.format("Constant pool entry %d is not a class", index));
+        }
+        return getUtf8(constantPool, ((int[]) value)[0]);
+    }
+
+    private static String getConstant(Object[] constantPool, int index) throws IOException {
+        Object value = constantPool[index];
+        if (value instanceof int[]) {
+            return '"' + getUtf8(constantPool, ((int[]) value)[0]) + '"';
+        }
+        return String.valueOf(value);
+    }
+}
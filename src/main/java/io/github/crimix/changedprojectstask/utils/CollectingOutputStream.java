@@ -2,12 +2,12 @@ package io.github.crimix.changedprojectstask.utils;
 
 import org.apache.commons.exec.LogOutputStream;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 public class CollectingOutputStream extends LogOutputStream {
 
-    private final List<String> lines = new LinkedList<>();
+    private final List<String> lines = new ArrayList<>();
 
     @Override
     protected void processLine(String line, int level) {
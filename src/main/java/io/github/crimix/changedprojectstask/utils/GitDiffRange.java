@@ -0,0 +1,45 @@
+package io.github.crimix.changedprojectstask.utils;
+
+import lombok.Data;
+
+/**
+ * The revisions to compare when finding the changed files, as they would be given to git diff.
+ * The getters are auto-generated by Lombok
+ */
+@Data
+public class GitDiffRange {
+    public static final String COMMITS = " ";
+    public static final String TWO_DOT = "..";
+    public static final String THREE_DOT = "...";
+
+    /**
+     * The revision to compare from
+     */
+    private final String previous;
+
+    /**
+     * The revision to compare to, which is null when it is implicitly HEAD
+     */
+    private final String current;
+
+    /**
+     * How the revisions are separated, which is either {@link #COMMITS}, {@link #TWO_DOT} or {@link #THREE_DOT}
+     */
+    private final String separator;
+
+    /**
+     * Returns whether the comparison should be from the merge base of the two revisions like git diff does for three dots.
+     * @return true if the comparison should be from the merge base
+     */
+    public boolean isFromMergeBase() {
+        return THREE_DOT.equals(separator);
+    }
+
+    /**
+     * Gets the range as git diff arguments.
+     * @return the range as git diff arguments
+     */
+    public String toGitArguments() {
+        return String.format("%s%s%s", previous, separator, current == null ? "" : current);
+    }
+}
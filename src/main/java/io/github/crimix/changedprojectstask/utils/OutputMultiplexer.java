@@ -0,0 +1,70 @@
+package io.github.crimix.changedprojectstask.utils;
+
+import io.github.crimix.changedprojectstask.configuration.OutputMode;
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Combines the output of the Gradle processes started for the affected projects into the Gradle log.
+ * Each line is prefixed with the project path, such that the output of processes running at the same time can be told apart,
+ * and the full output of each project is written to its own log file.
+ */
+public class OutputMultiplexer {
+
+    private final Logger logger;
+    private final OutputMode mode;
+    private final int bufferLines;
+    private final File logDir;
+
+    /**
+     * Creates the multiplexer.
+     * @param logger the logger to print the output to
+     * @param mode how the output is printed
+     * @param bufferLines the number of lines kept for each project when the output is not printed as it is written
+     * @param logDir the directory to write the log file of each project to
+     */
+    public OutputMultiplexer(Logger logger, OutputMode mode, int bufferLines, File logDir) {
+        this.logger = logger;
+        this.mode = mode;
+        this.bufferLines = bufferLines;
+        this.logDir = logDir;
+    }
+
+    /**
+     * Opens the output of a process started for the project, which replaces the log file of any earlier process for the project.
+     * @param projectPath the path of the project, or a name not starting with : for a process not belonging to a single project
+     * @return the output to give the process
+     * @throws IOException if the log file could not be created
+     */
+    public ProcessOutput open(String projectPath) throws IOException {
+        File logFile = new File(logDir, getLogFileName(projectPath));
+        Files.createDirectories(logFile.getParentFile().toPath());
+        return new ProcessOutput(this, projectPath, logFile);
+    }
+
+    Logger getLogger() {
+        return logger;
+    }
+
+    OutputMode getMode() {
+        return mode;
+    }
+
+    int getBufferLines() {
+        return bufferLines;
+    }
+
+    private static String getLogFileName(String projectPath) {
+        //The project path is mirrored as directories, as any character replacing : could also be part of a project name
+        //The root project has the path : which would give an empty name, so it is the only log file outside the projects directory
+        //besides the processes not belonging to a single project, which names do not start with :
+        if (!projectPath.startsWith(":")) {
+            return String.format("%s.log", projectPath);
+        }
+        String path = projectPath.substring(1);
+        return path.isEmpty() ? "root.log" : String.format("projects/%s.log", path.replace(':', '/'));
+    }
+}
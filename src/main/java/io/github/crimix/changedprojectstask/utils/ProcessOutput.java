@@ -0,0 +1,125 @@
+package io.github.crimix.changedprojectstask.utils;
+
+import io.github.crimix.changedprojectstask.configuration.OutputMode;
+import org.apache.commons.exec.LogOutputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * The output of a single Gradle process, which is written to the project's log file and printed as configured by the {@link OutputMultiplexer}.
+ * The standard output and error are read by different threads, so the lines are handled one at a time.
+ */
+public class ProcessOutput {
+
+    private final OutputMultiplexer multiplexer;
+    private final String prefix;
+    private final File logFile;
+    private final LogOutputStream stdout = new LoggingOutputStream(line -> add(line, false));
+    private final LogOutputStream stderr = new LoggingOutputStream(line -> add(line, true));
+    //Only the last lines are kept, such that a chatty process cannot use all the memory, the rest is in the log file
+    private final Deque<String> buffer = new ArrayDeque<>();
+    private int droppedLines;
+    private boolean hasErrors;
+    private Writer logWriter;
+
+    ProcessOutput(OutputMultiplexer multiplexer, String projectPath, File logFile) throws IOException {
+        this.multiplexer = multiplexer;
+        this.prefix = String.format("[%s] ", projectPath);
+        this.logFile = logFile;
+        this.logWriter = Files.newBufferedWriter(logFile.toPath(), StandardCharsets.UTF_8);
+    }
+
+    public OutputStream getStdout() {
+        return stdout;
+    }
+
+    public OutputStream getStderr() {
+        return stderr;
+    }
+
+    public File getLogFile() {
+        return logFile;
+    }
+
+    /**
+     * Completes the output when the process is done, printing the kept lines if the mode says so.
+     * @param failed whether the process failed
+     */
+    public void finish(boolean failed) {
+        //Closing the streams handles the last line if it was not terminated
+        closeQuietly(stdout);
+        closeQuietly(stderr);
+        synchronized (this) {
+            closeQuietly(logWriter);
+            logWriter = null;
+            OutputMode mode = multiplexer.getMode();
+            boolean print = mode == OutputMode.GROUPED || (mode == OutputMode.ON_FAILURE && failed);
+            if (print && !buffer.isEmpty()) {
+                //Printed as a single message, such that it is not mixed with the output of other processes
+                StringBuilder block = new StringBuilder();
+                if (droppedLines > 0) {
+                    block.append(String.format("%s... %d earlier lines are in %s%n", prefix, droppedLines, logFile));
+                }
+                buffer.forEach(line -> block.append(line).append(System.lineSeparator()));
+                String message = block.toString().trim();
+                if (failed || hasErrors) {
+                    multiplexer.getLogger().error(message);
+                } else {
+                    multiplexer.getLogger().lifecycle(message);
+                }
+            }
+            buffer.clear();
+        }
+        if (failed) {
+            multiplexer.getLogger().error("{}The full output is in {}", prefix, logFile);
+        }
+    }
+
+    private synchronized void add(String line, boolean error) {
+        if (logWriter != null) {
+            try {
+                logWriter.write(line);
+                logWriter.write(System.lineSeparator());
+            } catch (IOException e) {
+                //The log file is only a copy of the output, so the process is left running and the output is still printed
+                multiplexer.getLogger().warn("{}Could not write to {}: {}", prefix, logFile, e.getMessage());
+                closeQuietly(logWriter);
+                logWriter = null;
+            }
+        }
+
+        String prefixedLine = prefix + line;
+        if (multiplexer.getMode() == OutputMode.STREAM) {
+            if (error) {
+                multiplexer.getLogger().error(prefixedLine);
+            } else {
+                multiplexer.getLogger().lifecycle(prefixedLine);
+            }
+            return;
+        }
+        hasErrors = hasErrors || error;
+        buffer.addLast(prefixedLine);
+        if (buffer.size() > multiplexer.getBufferLines()) {
+            buffer.removeFirst();
+            droppedLines++;
+        }
+    }
+
+    private void closeQuietly(AutoCloseable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            multiplexer.getLogger().warn("{}Could not close the output: {}", prefix, e.getMessage());
+        }
+    }
+}
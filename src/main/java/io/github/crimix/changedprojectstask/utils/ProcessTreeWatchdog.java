@@ -0,0 +1,50 @@
+package io.github.crimix.changedprojectstask.utils;
+
+import org.apache.commons.exec.ExecuteWatchdog;
+import org.apache.commons.exec.Watchdog;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A watchdog that kills the process and all of its descendants when the timeout is reached.
+ * The {@link ExecuteWatchdog} only destroys the process it started, which leaves processes like the test JVMs of a Gradle build running.
+ */
+public class ProcessTreeWatchdog extends ExecuteWatchdog {
+
+    private final Duration timeout;
+    private Process process;
+
+    /**
+     * Creates the watchdog.
+     * @param timeout the time the process may run or null if it may run for as long as it wants
+     */
+    public ProcessTreeWatchdog(Duration timeout) {
+        //A timeout of zero is not allowed by the watchdog, so anything shorter than a millisecond is rounded up
+        super(timeout == null ? INFINITE_TIMEOUT : Math.max(1, timeout.toMillis()));
+        this.timeout = timeout;
+    }
+
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    @Override
+    public synchronized void start(Process processToMonitor) {
+        this.process = processToMonitor;
+        super.start(processToMonitor);
+    }
+
+    @Override
+    public synchronized void timeoutOccured(Watchdog w) {
+        //The descendants are found before the process is destroyed, as they can no longer be found once they have lost their parent
+        List<ProcessHandle> descendants = process == null
+                ? List.of()
+                : process.descendants().collect(Collectors.toList());
+        super.timeoutOccured(w);
+        if (killedProcess()) {
+            descendants.forEach(ProcessHandle::destroyForcibly);
+        }
+    }
+}
@@ -14,4 +14,7 @@ public class Properties {
     public static final String COMMIT_MODE = PREFIX + "compareMode";
     public static final String TASK_TO_RUN = PREFIX + "taskToRun";
     public static final String COMMANDLINE_ARGS = PREFIX + "commandLineArgs";
+    public static final String WATCH = PREFIX + "watch";
+    public static final String GIT_PROCESS = PREFIX + "gitProcess";
+    public static final String SNAPSHOT = PREFIX + "snapshot";
 }
@@ -0,0 +1,150 @@
+package io.github.crimix.changedprojectstask.git;
+
+import io.github.crimix.changedprojectstask.utils.GitDiffRange;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class InProcessGitDiffTest {
+
+    @TempDir
+    static Path repository;
+
+    @BeforeAll
+    public static void createRepository() throws Exception {
+        git("init", "-q", "-b", "main");
+        git("config", "user.email", "test@example.com");
+        git("config", "user.name", "test");
+        for (int i = 0; i < 10; i++) {
+            write("a/b/c/file" + (i % 3) + ".txt", "content " + i);
+            write("d/file.txt", "line " + i);
+            commit("commit " + i);
+        }
+        git("tag", "-a", "v1", "-m", "tag", "HEAD~5");
+
+        git("checkout", "-q", "-b", "feature");
+        write("a/new.txt", "new");
+        write("a/b-x/file.txt", "sorted after a/b/");
+        write("a/b.txt", "sorted before a/b/");
+        commit("feature");
+        git("mv", "a/b/c/file1.txt", "a/renamed.txt");
+        commit("rename");
+
+        git("checkout", "-q", "main");
+        write("main.txt", "main");
+        commit("main");
+        git("merge", "-q", "--no-edit", "feature");
+        write("post.txt", "post");
+        commit("post");
+
+        //Pack the history such that both packed objects with deltas and loose objects are read
+        git("gc", "-q", "--aggressive");
+        write("loose.txt", "loose");
+        commit("loose");
+    }
+
+    public static Stream<Arguments> provideRanges() {
+        return Stream.of(
+                Arguments.of(new GitDiffRange("HEAD~", "HEAD", GitDiffRange.COMMITS)),
+                Arguments.of(new GitDiffRange("HEAD~4", "HEAD", GitDiffRange.COMMITS)),
+                Arguments.of(new GitDiffRange("v1", "HEAD", GitDiffRange.COMMITS)),
+                Arguments.of(new GitDiffRange("HEAD~2^2", "HEAD~2^1", GitDiffRange.COMMITS)),
+                Arguments.of(new GitDiffRange("main~3", null, GitDiffRange.TWO_DOT)),
+                Arguments.of(new GitDiffRange("main~3", "feature", GitDiffRange.TWO_DOT)),
+                Arguments.of(new GitDiffRange("main~3", "feature", GitDiffRange.THREE_DOT)),
+                Arguments.of(new GitDiffRange("feature", null, GitDiffRange.THREE_DOT))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideRanges")
+    public void testSameFilesAsGitDiff(GitDiffRange range) throws Exception {
+        List<String> expected = git(Stream.concat(Stream.of("diff", "--name-only", "--no-renames"), Arrays.stream(range.toGitArguments().split(" "))).toArray(String[]::new));
+
+        try (InProcessGitDiff diff = new InProcessGitDiff(repository.toFile(), createCache())) {
+            Assertions.assertThat(diff.getChangedFiles(range)).containsExactlyElementsOf(expected);
+        }
+    }
+
+    @Test
+    public void testMergeBaseIsResolvedFromCache() throws Exception {
+        MergeBaseCache cache = createCache();
+        GitDiffRange range = new GitDiffRange("feature", "main", GitDiffRange.THREE_DOT);
+        String feature = git("rev-parse", "feature").get(0);
+        String main = git("rev-parse", "main").get(0);
+        String mergeBase = git("merge-base", "feature", "main").get(0);
+
+        try (InProcessGitDiff diff = new InProcessGitDiff(repository.toFile(), cache)) {
+            Assertions.assertThat(diff.resolve(range)).isEqualTo(new GitDiffRange(mergeBase, main, GitDiffRange.COMMITS));
+            Assertions.assertThat(cache.get(feature, main)).contains(mergeBase);
+
+            //A cached merge base is used as is, without walking the history again
+            String cachedMergeBase = git("rev-parse", "main~1").get(0);
+            cache.put(feature, main, cachedMergeBase);
+            Assertions.assertThat(diff.resolve(range).getPrevious()).isEqualTo(cachedMergeBase);
+        }
+    }
+
+    @Test
+    public void testClosedRepositoryIsNotRead() throws Exception {
+        GitRepository closed = new GitRepository(repository.toFile());
+        closed.close();
+
+        //The packed objects are unmapped, so reading them must fail instead of reading unmapped memory
+        Assertions.assertThatThrownBy(() -> closed.readCommit(git("rev-parse", "HEAD~").get(0)))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void testMergeBaseCacheIsStored() throws Exception {
+        File file = repository.resolve("cache/merge-bases.properties").toFile();
+        MergeBaseCache cache = new MergeBaseCache(file);
+        cache.put("first", "second", "base");
+        cache.store();
+
+        Assertions.assertThat(new MergeBaseCache(file).get("first", "second")).contains("base");
+    }
+
+    private static MergeBaseCache createCache() throws IOException {
+        return new MergeBaseCache(repository.resolve("missing.properties").toFile());
+    }
+
+    private static void write(String path, String content) throws IOException {
+        Path file = repository.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+
+    private static void commit(String message) throws Exception {
+        git("add", "-A");
+        git("commit", "-q", "-m", message);
+    }
+
+    private static List<String> git(String... arguments) throws Exception {
+        Process process = new ProcessBuilder(Stream.concat(Stream.of("git"), Arrays.stream(arguments)).collect(Collectors.toList()))
+                .directory(repository.toFile())
+                .redirectErrorStream(true)
+                .start();
+        List<String> lines = Arrays.stream(new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).split("\n"))
+                .filter(line -> !line.isEmpty())
+                .collect(Collectors.toList());
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException(String.format("git %s failed with %s", String.join(" ", arguments), lines));
+        }
+        return lines;
+    }
+}
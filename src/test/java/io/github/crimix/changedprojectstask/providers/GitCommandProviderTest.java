@@ -19,25 +19,25 @@ public class GitCommandProviderTest {
 
     public static Stream<Arguments> provideStringsForIsBlank() {
         return Stream.of(
-                Arguments.of(NOT_SET, NOT_SET, GitDiffMode.COMMIT, false, "git diff --name-only HEAD~ HEAD"),
-                Arguments.of(CURR, NOT_SET, GitDiffMode.COMMIT, false, "git diff --name-only curr~ curr"),
-                Arguments.of(CURR, PREV, GitDiffMode.COMMIT, false, "git diff --name-only prev~ curr"),
+                Arguments.of(NOT_SET, NOT_SET, GitDiffMode.COMMIT, false, "git diff --name-only --no-renames HEAD~ HEAD"),
+                Arguments.of(CURR, NOT_SET, GitDiffMode.COMMIT, false, "git diff --name-only --no-renames curr~ curr"),
+                Arguments.of(CURR, PREV, GitDiffMode.COMMIT, false, "git diff --name-only --no-renames prev~ curr"),
                 Arguments.of(NOT_SET, PREV, GitDiffMode.COMMIT, true, "[COMMIT] When using changedProjectsTask.prevCommit then changedProjectsTask.commit must also be specified"),
 
                 Arguments.of(NOT_SET, NOT_SET, GitDiffMode.BRANCH, true, "[BRANCH] changedProjectsTask.prevCommit must always be specified"),
                 Arguments.of(CURR, NOT_SET, GitDiffMode.BRANCH, true, "[BRANCH] changedProjectsTask.prevCommit must always be specified"),
-                Arguments.of(CURR, PREV, GitDiffMode.BRANCH, false, "git diff --name-only prev curr"),
-                Arguments.of(NOT_SET, PREV, GitDiffMode.BRANCH, false, "git diff --name-only prev HEAD"),
+                Arguments.of(CURR, PREV, GitDiffMode.BRANCH, false, "git diff --name-only --no-renames prev curr"),
+                Arguments.of(NOT_SET, PREV, GitDiffMode.BRANCH, false, "git diff --name-only --no-renames prev HEAD"),
 
                 Arguments.of(NOT_SET, NOT_SET, GitDiffMode.BRANCH_TWO_DOT, true, "[BRANCH_TWO_DOT] changedProjectsTask.prevCommit must always be specified"),
                 Arguments.of(CURR, NOT_SET, GitDiffMode.BRANCH_TWO_DOT, true, "[BRANCH_TWO_DOT] changedProjectsTask.prevCommit must always be specified"),
-                Arguments.of(CURR, PREV, GitDiffMode.BRANCH_TWO_DOT, false, "git diff --name-only prev..curr"),
-                Arguments.of(NOT_SET, PREV, GitDiffMode.BRANCH_TWO_DOT, false, "git diff --name-only prev.."),
+                Arguments.of(CURR, PREV, GitDiffMode.BRANCH_TWO_DOT, false, "git diff --name-only --no-renames prev..curr"),
+                Arguments.of(NOT_SET, PREV, GitDiffMode.BRANCH_TWO_DOT, false, "git diff --name-only --no-renames prev.."),
 
                 Arguments.of(NOT_SET, NOT_SET, GitDiffMode.BRANCH_THREE_DOT, true, "[BRANCH_THREE_DOT] changedProjectsTask.prevCommit must always be specified"),
                 Arguments.of(CURR, NOT_SET, GitDiffMode.BRANCH_THREE_DOT, true, "[BRANCH_THREE_DOT] changedProjectsTask.prevCommit must always be specified"),
-                Arguments.of(CURR, PREV, GitDiffMode.BRANCH_THREE_DOT, false, "git diff --name-only prev...curr"),
-                Arguments.of(NOT_SET, PREV, GitDiffMode.BRANCH_THREE_DOT, false, "git diff --name-only prev...")
+                Arguments.of(CURR, PREV, GitDiffMode.BRANCH_THREE_DOT, false, "git diff --name-only --no-renames prev...curr"),
+                Arguments.of(NOT_SET, PREV, GitDiffMode.BRANCH_THREE_DOT, false, "git diff --name-only --no-renames prev...")
         );
     }
 
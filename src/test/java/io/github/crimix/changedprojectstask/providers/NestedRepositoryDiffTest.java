@@ -0,0 +1,157 @@
+package io.github.crimix.changedprojectstask.providers;
+
+import io.github.crimix.changedprojectstask.git.MergeBaseCache;
+import io.github.crimix.changedprojectstask.utils.GitDiffRange;
+import org.assertj.core.api.Assertions;
+import org.gradle.api.logging.Logging;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class NestedRepositoryDiffTest {
+
+    private static final String INNER = "modules/inner";
+    private static final String OTHER = "modules/other";
+
+    @TempDir
+    static Path directory;
+
+    private static Path outer;
+    private static String beforeMove;
+    private static String afterMove;
+    private static String afterAdd;
+
+    @BeforeAll
+    public static void createRepositories() throws Exception {
+        Path inner = createRepository("inner");
+        write(inner, "lib/a.txt", "a");
+        write(inner, "lib/b.txt", "b");
+        commit(inner, "inner");
+        Path other = createRepository("other");
+        write(other, "other.txt", "other");
+        commit(other, "other");
+
+        outer = createRepository("outer");
+        write(outer, "root.txt", "root");
+        commit(outer, "root");
+        git(outer, "-c", "protocol.file.allow=always", "submodule", "add", "-q", inner.toUri().toString(), INNER);
+        commit(outer, "add inner");
+        beforeMove = git(outer, "rev-parse", "HEAD").get(0);
+
+        //Moves the pointer of the submodule to a new commit made inside it
+        Path checkout = outer.resolve(INNER);
+        write(checkout, "lib/a.txt", "changed");
+        write(checkout, "lib/c.txt", "c");
+        commit(checkout, "change inner");
+        commit(outer, "move inner");
+        afterMove = git(outer, "rev-parse", "HEAD").get(0);
+
+        git(outer, "-c", "protocol.file.allow=always", "submodule", "add", "-q", other.toUri().toString(), OTHER);
+        commit(outer, "add other");
+        afterAdd = git(outer, "rev-parse", "HEAD").get(0);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    public void testMovedSubmoduleIsResolvedToItsChangedFiles(boolean useGitProcess) throws Exception {
+        Map<String, List<String>> actual = diff(useGitProcess, beforeMove, afterMove, INNER);
+
+        Assertions.assertThat(actual).containsOnlyKeys(INNER);
+        Assertions.assertThat(actual.get(INNER)).containsExactly(INNER + "/lib/a.txt", INNER + "/lib/c.txt");
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    public void testAddedSubmoduleIsTheGitlinkPath(boolean useGitProcess) throws Exception {
+        Map<String, List<String>> actual = diff(useGitProcess, afterMove, afterAdd, OTHER);
+
+        Assertions.assertThat(actual.get(OTHER)).containsExactly(OTHER);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    public void testRemovedSubmoduleIsTheGitlinkPath(boolean useGitProcess) throws Exception {
+        Map<String, List<String>> actual = diff(useGitProcess, afterAdd, afterMove, OTHER);
+
+        Assertions.assertThat(actual.get(OTHER)).containsExactly(OTHER);
+    }
+
+    @Test
+    public void testInProcessLookupMatchesGitProcess() throws Exception {
+        String[][] ranges = {{beforeMove, afterMove}, {afterMove, beforeMove}, {beforeMove, afterAdd}, {afterAdd, beforeMove}};
+        for (String[] range : ranges) {
+            Assertions.assertThat(diff(false, range[0], range[1], INNER, OTHER))
+                    .isEqualTo(diff(true, range[0], range[1], INNER, OTHER));
+        }
+    }
+
+    @Test
+    public void testFindNestedRoots() {
+        Assertions.assertThat(NestedRepositoryDiff.findNestedRoots(outer.toFile())).containsExactlyInAnyOrder(INNER, OTHER);
+    }
+
+    private static Map<String, List<String>> diff(boolean useGitProcess, String previous, String current, String... changedRoots) throws IOException {
+        GitCommandProvider gitCommandProvider = new GitCommandProvider(ProjectBuilder.builder().withName("root").build());
+        MergeBaseCache cache = new MergeBaseCache(directory.resolve("missing.properties").toFile());
+        NestedRepositoryDiff nestedDiff = new NestedRepositoryDiff(gitCommandProvider, NestedRepositoryDiffTest::runGit, cache, useGitProcess,
+                Logging.getLogger(NestedRepositoryDiffTest.class));
+        return nestedDiff.diff(outer.toFile(), new GitDiffRange(previous, current, GitDiffRange.COMMITS), List.of(changedRoots));
+    }
+
+    private static List<String> runGit(File gitRoot, String command) {
+        try {
+            //The commands start with git, which the helper adds itself
+            return git(gitRoot.toPath(), Arrays.stream(command.split(" ")).skip(1).toArray(String[]::new));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Path createRepository(String name) throws Exception {
+        Path repository = Files.createDirectories(directory.resolve(name));
+        git(repository, "init", "-q", "-b", "main");
+        return repository;
+    }
+
+    private static void write(Path repository, String path, String content) throws IOException {
+        Path file = repository.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+
+    private static void commit(Path repository, String message) throws Exception {
+        git(repository, "add", "-A");
+        git(repository, "commit", "-q", "-m", message);
+    }
+
+    private static List<String> git(Path repository, String... arguments) throws Exception {
+        //The identity is given on the command line, as the commits inside the submodule checkouts do not use the config of the outer repository
+        List<String> command = Stream.concat(Stream.of("git", "-c", "user.email=test@example.com", "-c", "user.name=test"), Arrays.stream(arguments))
+                .collect(Collectors.toList());
+        Process process = new ProcessBuilder(command)
+                .directory(repository.toFile())
+                .redirectErrorStream(true)
+                .start();
+        List<String> lines = Arrays.stream(new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).split("\n"))
+                .filter(line -> !line.isEmpty())
+                .collect(Collectors.toList());
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException(String.format("git %s failed with %s", String.join(" ", arguments), lines));
+        }
+        return lines;
+    }
+}
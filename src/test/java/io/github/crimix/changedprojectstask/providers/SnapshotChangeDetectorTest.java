@@ -0,0 +1,163 @@
+package io.github.crimix.changedprojectstask.providers;
+
+import org.assertj.core.api.Assertions;
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+public class SnapshotChangeDetectorTest {
+
+    private static final Predicate<String> NOTHING_IGNORED = path -> false;
+    //Old enough for the hash of the file to be kept between runs
+    private static final FileTime OLD = FileTime.from(Instant.now().minus(Duration.ofHours(1)));
+
+    @TempDir
+    Path directory;
+
+    private Path workspace;
+    private Project project;
+
+    @BeforeEach
+    public void createProject() throws IOException {
+        //The Gradle user home is kept outside the workspace, such that only the files written by the tests are scanned
+        workspace = Files.createDirectories(directory.resolve("workspace"));
+        project = ProjectBuilder.builder()
+                .withName("root")
+                .withProjectDir(workspace.toFile())
+                .withGradleUserHomeDir(directory.resolve("home").toFile())
+                .build();
+        write("a.txt", "a");
+        write("lib/b.txt", "b");
+    }
+
+    @Test
+    public void testFirstRunChangesAllFiles() throws IOException {
+        SnapshotChangeDetector detector = new SnapshotChangeDetector(project, NOTHING_IGNORED);
+
+        Assertions.assertThat(findChangedFiles(detector)).containsExactly("a.txt", "lib/b.txt");
+        Assertions.assertThat(detector.hasStoredSnapshot()).isFalse();
+    }
+
+    @Test
+    public void testUnchangedRunChangesNothing() throws IOException {
+        storeSnapshot(NOTHING_IGNORED);
+        SnapshotChangeDetector detector = new SnapshotChangeDetector(project, NOTHING_IGNORED);
+
+        Assertions.assertThat(findChangedFiles(detector)).isEmpty();
+        Assertions.assertThat(detector.hasStoredSnapshot()).isTrue();
+    }
+
+    @Test
+    public void testSnapshotIsOnlyStoredWhenAsked() throws IOException {
+        findChangedFiles(new SnapshotChangeDetector(project, NOTHING_IGNORED));
+
+        Assertions.assertThat(findChangedFiles(NOTHING_IGNORED)).containsExactly("a.txt", "lib/b.txt");
+    }
+
+    @Test
+    public void testEditWithSameSizeIsChanged() throws IOException {
+        storeSnapshot(NOTHING_IGNORED);
+        write("lib/b.txt", "c");
+
+        Assertions.assertThat(findChangedFiles(NOTHING_IGNORED)).containsExactly("lib/b.txt");
+    }
+
+    @Test
+    public void testAddedAndDeletedFilesAreChanged() throws IOException {
+        storeSnapshot(NOTHING_IGNORED);
+        write("lib/c.txt", "c");
+        Files.delete(workspace.resolve("a.txt"));
+
+        Assertions.assertThat(findChangedFiles(NOTHING_IGNORED)).containsExactly("lib/c.txt", "a.txt");
+    }
+
+    @Test
+    public void testIgnoredFileIsNeverChanged() throws IOException {
+        Predicate<String> ignored = path -> path.endsWith(".log");
+        write("out.log", "1");
+        storeSnapshot(ignored);
+        write("out.log", "22");
+
+        Assertions.assertThat(findChangedFiles(ignored)).isEmpty();
+        Assertions.assertThat(findChangedFiles(NOTHING_IGNORED)).contains("out.log");
+    }
+
+    @Test
+    public void testHashIsReusedWhenSizeAndModificationTimeAreUnchanged() throws IOException {
+        Files.setLastModifiedTime(workspace.resolve("a.txt"), OLD);
+        storeSnapshot(NOTHING_IGNORED);
+        //An edit keeping both the size and the modification time is not seen, as the cached hash is used instead of reading the file
+        write("a.txt", "b");
+        Files.setLastModifiedTime(workspace.resolve("a.txt"), OLD);
+
+        Assertions.assertThat(findChangedFiles(NOTHING_IGNORED)).isEmpty();
+    }
+
+    @Test
+    public void testHashIsNotReusedWhenModificationTimeChanged() throws IOException {
+        Files.setLastModifiedTime(workspace.resolve("a.txt"), OLD);
+        storeSnapshot(NOTHING_IGNORED);
+        write("a.txt", "b");
+        Files.setLastModifiedTime(workspace.resolve("a.txt"), FileTime.from(OLD.toInstant().plusSeconds(1)));
+
+        Assertions.assertThat(findChangedFiles(NOTHING_IGNORED)).containsExactly("a.txt");
+    }
+
+    @Test
+    public void testRecentlyModifiedFileIsHashedAgain() throws IOException {
+        //The modification time is within the precision of the file system when scanned, so an edit could keep it
+        FileTime recent = Files.getLastModifiedTime(workspace.resolve("a.txt"));
+        storeSnapshot(NOTHING_IGNORED);
+        write("a.txt", "b");
+        Files.setLastModifiedTime(workspace.resolve("a.txt"), recent);
+
+        Assertions.assertThat(findChangedFiles(NOTHING_IGNORED)).containsExactly("a.txt");
+    }
+
+    @Test
+    public void testBuildAndGradleDirectoriesAreExcluded() throws IOException {
+        write("buildSrc/build.gradle", "");
+        storeSnapshot(NOTHING_IGNORED);
+        write("build/classes/A.class", "a");
+        write("buildSrc/build/classes/B.class", "b");
+        write(".gradle/cache.bin", "c");
+        //A directory named build is only a build directory when it is next to a build script
+        write("docs/build/index.html", "d");
+
+        Assertions.assertThat(findChangedFiles(NOTHING_IGNORED)).containsExactly("docs/build/index.html");
+    }
+
+    private void storeSnapshot(Predicate<String> ignoredFilter) throws IOException {
+        SnapshotChangeDetector detector = new SnapshotChangeDetector(project, ignoredFilter);
+        findChangedFiles(detector);
+        detector.storeSnapshot();
+    }
+
+    private List<String> findChangedFiles(Predicate<String> ignoredFilter) throws IOException {
+        return findChangedFiles(new SnapshotChangeDetector(project, ignoredFilter));
+    }
+
+    private static List<String> findChangedFiles(SnapshotChangeDetector detector) throws IOException {
+        List<String> changes = new ArrayList<>();
+        detector.findChangedFiles(changes::add);
+        return changes;
+    }
+
+    private void write(String path, String content) throws IOException {
+        Path file = workspace.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+}
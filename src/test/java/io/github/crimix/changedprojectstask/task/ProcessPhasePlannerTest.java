@@ -0,0 +1,84 @@
+package io.github.crimix.changedprojectstask.task;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class ProcessPhasePlannerTest {
+
+    private static final String APP = ":app";
+    private static final String LIB = ":lib";
+    private static final String CONSUMER = ":consumer";
+
+    //Both :lib and :app are directly changed, :app depends on :lib and only compiles its own changes unless the public API of :lib changed
+    private boolean libAbiBuilt;
+    private boolean libAbiChanged;
+
+    @Test
+    public void testFirstPhaseDoesNotCheckTheApi() {
+        ProcessPhasePlanner<String> planner = createPlanner();
+
+        Map<String, Set<String>> firstPhase = planner.plan(0);
+
+        Assertions.assertThat(firstPhase).containsOnlyKeys(LIB, APP);
+        Assertions.assertThat(firstPhase.get(APP)).containsExactly("compileJava");
+    }
+
+    @Test
+    public void testChangedApiRunsTheRemainingTasksOfChangedDependents() {
+        ProcessPhasePlanner<String> planner = createPlanner();
+        planner.plan(0);
+        libAbiBuilt = true;
+        libAbiChanged = true;
+
+        Map<String, Set<String>> secondPhase = planner.plan(1);
+
+        Assertions.assertThat(secondPhase).containsOnlyKeys(APP, CONSUMER);
+        Assertions.assertThat(secondPhase.get(APP)).containsExactly("test");
+        Assertions.assertThat(secondPhase.get(CONSUMER)).containsExactly("compileJava", "test");
+    }
+
+    @Test
+    public void testUnchangedApiRunsNothingMore() {
+        ProcessPhasePlanner<String> planner = createPlanner();
+        planner.plan(0);
+        libAbiBuilt = true;
+
+        Assertions.assertThat(planner.plan(1)).isEmpty();
+    }
+
+    @Test
+    public void testApiIsCheckedInTheOnlyPhaseWhenNotDeferred() {
+        libAbiBuilt = true;
+        libAbiChanged = true;
+        ProcessPhasePlanner<String> planner = new ProcessPhasePlanner<>(List.of(List.of(LIB, APP, CONSUMER)), false, this::getTasksToRun);
+
+        Assertions.assertThat(planner.plan(0)).containsOnlyKeys(LIB, APP, CONSUMER);
+    }
+
+    private ProcessPhasePlanner<String> createPlanner() {
+        return new ProcessPhasePlanner<>(List.of(List.of(LIB, APP), List.of(CONSUMER)), true, this::getTasksToRun);
+    }
+
+    private Set<String> getTasksToRun(String project, boolean checkAbi) {
+        boolean dependentWithChangedAbi = false;
+        if (checkAbi && !LIB.equals(project)) {
+            //Checking the public API before the process of :lib compiled it would fingerprint the classes of the previous build
+            Assertions.assertThat(libAbiBuilt).isTrue();
+            dependentWithChangedAbi = libAbiChanged;
+        }
+        Set<String> result = new LinkedHashSet<>();
+        if (!CONSUMER.equals(project)) {
+            result.add("compileJava");
+        }
+        if (dependentWithChangedAbi) {
+            result.add("compileJava");
+            result.add("test");
+        }
+        return result;
+    }
+}
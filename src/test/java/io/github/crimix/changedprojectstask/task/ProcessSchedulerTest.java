@@ -0,0 +1,95 @@
+package io.github.crimix.changedprojectstask.task;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class ProcessSchedulerTest {
+
+    private static final List<Integer> JOBS = IntStream.range(0, 20).boxed().collect(Collectors.toList());
+
+    @Test
+    public void testRunsAtMostMaxParallel() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Integer> completed = new CopyOnWriteArrayList<>();
+
+        new ProcessScheduler(3, Long.MAX_VALUE).run(JOBS, job -> 1, job -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            sleep();
+            running.decrementAndGet();
+            completed.add(job);
+        });
+
+        Assertions.assertThat(maxRunning.get()).isBetween(1, 3);
+        Assertions.assertThat(completed).containsExactlyInAnyOrderElementsOf(JOBS);
+    }
+
+    @Test
+    public void testRunsWithinMemoryBudget() {
+        AtomicLong usedMemory = new AtomicLong();
+        AtomicLong maxUsedMemory = new AtomicLong();
+
+        new ProcessScheduler(10, 1000).run(JOBS, job -> job % 2 == 0 ? 600 : 300, job -> {
+            long memory = job % 2 == 0 ? 600 : 300;
+            maxUsedMemory.accumulateAndGet(usedMemory.addAndGet(memory), Math::max);
+            sleep();
+            usedMemory.addAndGet(-memory);
+        });
+
+        Assertions.assertThat(maxUsedMemory.get()).isLessThanOrEqualTo(1000);
+    }
+
+    @Test
+    public void testJobLargerThanBudgetRunsAlone() {
+        List<Integer> completed = new CopyOnWriteArrayList<>();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        new ProcessScheduler(2, 100).run(List.of(1, 2), job -> 500, job -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            sleep();
+            running.decrementAndGet();
+            completed.add(job);
+        });
+
+        Assertions.assertThat(completed).containsExactlyInAnyOrder(1, 2);
+        Assertions.assertThat(maxRunning.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFailureStopsStartingJobs() {
+        List<Integer> started = new CopyOnWriteArrayList<>();
+
+        Assertions.assertThatThrownBy(() -> new ProcessScheduler(1, Long.MAX_VALUE).run(JOBS, job -> 1, job -> {
+            started.add(job);
+            if (job == 2) {
+                throw new IllegalStateException("Executing command failed");
+            }
+        })).isInstanceOf(IllegalStateException.class);
+
+        Assertions.assertThat(started).containsExactly(0, 1, 2);
+    }
+
+    @Test
+    public void testNoJobs() {
+        new ProcessScheduler(1, Long.MAX_VALUE).run(Collections.<Integer>emptyList(), job -> 1, job -> {
+            throw new IllegalStateException();
+        });
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(5);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package io.github.crimix.changedprojectstask.utils;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class ChangedPathsTest {
+
+    private static final List<String> PATHS = List.of(
+            "README.md",
+            "module/src/main/java/Main.java",
+            "module/src/main/java/Other.java",
+            "module/src/test/java/Main.java",
+            "other/module/build.gradle",
+            "module/README.md"
+    );
+
+    @Test
+    public void testPathsAreReadInOrder() {
+        ChangedPaths paths = ChangedPaths.of(PATHS);
+
+        Assertions.assertThat(paths).containsExactlyElementsOf(PATHS);
+    }
+
+    @Test
+    public void testDirectoriesAreShared() {
+        ChangedPaths paths = ChangedPaths.of(PATHS);
+
+        Assertions.assertThat(paths.getDirectory(0)).isEmpty();
+        Assertions.assertThat(paths.getDirectory(1)).isEqualTo("module/src/main/java");
+        Assertions.assertThat(paths.getDirectory(2)).isSameAs(paths.getDirectory(1));
+        Assertions.assertThat(paths.getDirectory(4)).isEqualTo("other/module");
+    }
+
+    @Test
+    public void testEmpty() {
+        Assertions.assertThat(ChangedPaths.builder().build()).isEmpty();
+    }
+}
@@ -0,0 +1,137 @@
+package io.github.crimix.changedprojectstask.utils;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class ClassFileAbiReaderTest {
+
+    private static final String ORIGINAL = "public class Api {\n"
+            + "    public static final int CONSTANT = 1;\n"
+            + "    private int counter;\n"
+            + "    public String greet(String name) { return \"Hello \" + name; }\n"
+            + "    private void helper() { counter++; }\n"
+            + "}\n";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testPrivateChangeKeepsTheApi() throws Exception {
+        String privateChange = "public class Api {\n"
+                + "    public static final int CONSTANT = 1;\n"
+                + "    private long counter;\n"
+                + "    public String greet(String name) { return \"Hi \" + name + counter; }\n"
+                + "    private void helper(int step) { counter += step; }\n"
+                + "    private void other() { }\n"
+                + "}\n";
+
+        Assertions.assertThat(readAbi(privateChange)).isEqualTo(readAbi(ORIGINAL));
+    }
+
+    @Test
+    public void testPublicSignatureChangeChangesTheApi() throws Exception {
+        String publicChange = "public class Api {\n"
+                + "    public static final int CONSTANT = 1;\n"
+                + "    private int counter;\n"
+                + "    public String greet(CharSequence name) { return \"Hello \" + name; }\n"
+                + "    private void helper() { counter++; }\n"
+                + "}\n";
+
+        Assertions.assertThat(readAbi(publicChange)).isNotEqualTo(readAbi(ORIGINAL));
+    }
+
+    @Test
+    public void testInlinedConstantChangeChangesTheApi() throws Exception {
+        String constantChange = ORIGINAL.replace("CONSTANT = 1", "CONSTANT = 2");
+
+        Assertions.assertThat(readAbi(constantChange)).isNotEqualTo(readAbi(ORIGINAL));
+    }
+
+    @Test
+    public void testInheritedSignatureChangeChangesTheApi() throws Exception {
+        //The public methods of a package private superclass are part of the API of the public class extending it
+        String api = "public class Api extends Base { }\n";
+        String base = "class Base {\n"
+                + "    public String greet(String name) { return \"Hello \" + name; }\n"
+                + "}\n";
+        String changedBase = base.replace("String name", "CharSequence name");
+
+        Assertions.assertThat(readAbi(Map.of("Api", api, "Base", changedBase))).isNotEqualTo(readAbi(Map.of("Api", api, "Base", base)));
+    }
+
+    @Test
+    public void testAnnotationChangeChangesTheApi() throws Exception {
+        String annotated = ORIGINAL.replace("    public String greet", "    @Deprecated(since = \"1\") public String greet");
+        String changedAnnotation = annotated.replace("since = \"1\"", "since = \"2\"");
+
+        Assertions.assertThat(readAbi(annotated)).isNotEqualTo(readAbi(ORIGINAL));
+        Assertions.assertThat(readAbi(changedAnnotation)).isNotEqualTo(readAbi(annotated));
+    }
+
+    @Test
+    public void testAnnotationDefaultChangeChangesTheApi() throws Exception {
+        String marker = "public @interface Marker {\n"
+                + "    int value() default 1;\n"
+                + "}\n";
+        String changedMarker = marker.replace("default 1", "default 2");
+
+        Assertions.assertThat(readAbi(Map.of("Marker", changedMarker))).isNotEqualTo(readAbi(Map.of("Marker", marker)));
+    }
+
+    @Test
+    public void testTruncatedClassFileFails() throws Exception {
+        byte[] classFile = compile(ORIGINAL);
+        //The class ends with the body of its SourceFile attribute, which is skipped, so only the check of the skipped bytes notices the missing byte
+        byte[] truncated = Arrays.copyOf(classFile, classFile.length - 1);
+
+        Assertions.assertThatThrownBy(() -> ClassFileAbiReader.readAbi(new ByteArrayInputStream(truncated)))
+                .isInstanceOf(EOFException.class);
+    }
+
+    private List<String> readAbi(String source) throws IOException {
+        return ClassFileAbiReader.readAbi(new ByteArrayInputStream(compile(source)));
+    }
+
+    private List<String> readAbi(Map<String, String> sources) throws IOException {
+        //The lines of all the classes are sorted like the fingerprint of a project does
+        Path classesDir = compile(sources);
+        List<String> result = new ArrayList<>();
+        for (String className : sources.keySet()) {
+            result.addAll(ClassFileAbiReader.readAbi(new ByteArrayInputStream(Files.readAllBytes(classesDir.resolve(className + ".class")))));
+        }
+        result.sort(String::compareTo);
+        return result;
+    }
+
+    private byte[] compile(String source) throws IOException {
+        return Files.readAllBytes(compile(Map.of("Api", source)).resolve("Api.class"));
+    }
+
+    private Path compile(Map<String, String> sources) throws IOException {
+        //Each set of sources is compiled into its own directory, as they all declare the same classes
+        Path sourceDir = Files.createTempDirectory(dir, "source");
+        List<String> arguments = new ArrayList<>(List.of("-d", sourceDir.toString()));
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            Path sourceFile = sourceDir.resolve(source.getKey() + ".java");
+            Files.writeString(sourceFile, source.getValue());
+            arguments.add(sourceFile.toString());
+        }
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        int result = compiler.run(null, null, null, arguments.toArray(String[]::new));
+        Assertions.assertThat(result).isZero();
+        return sourceDir;
+    }
+}